@@ -0,0 +1,33 @@
+package org.gwtproject.rpc.serialization.stream.bytebuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Provides the buffers that a {@link ByteBufferSerializationStreamWriter} writes to. Buffers may be
+ * handed back to the allocator when the writer no longer needs them, allowing them to be reused.
+ */
+public interface BufferAllocator {
+    /**
+     * Allocates heap buffers, backed by an array.
+     */
+    BufferAllocator HEAP = ByteBuffer::allocate;
+
+    /**
+     * Allocates direct buffers, which can be written to a channel or socket without first being
+     * copied, but which are more expensive to allocate.
+     */
+    BufferAllocator DIRECT = ByteBuffer::allocateDirect;
+
+    /**
+     * Returns a cleared buffer with at least the requested capacity. The byte order of the buffer
+     * is not specified, callers should set it.
+     */
+    ByteBuffer allocate(int capacity);
+
+    /**
+     * Hands back a buffer from {@link #allocate(int)} which will no longer be used by the caller.
+     * Does nothing by default, leaving the buffer to the garbage collector.
+     */
+    default void release(ByteBuffer buffer) {
+    }
+}
@@ -8,20 +8,102 @@ import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStreamRead
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 public class ByteBufferSerializationStreamReader extends AbstractSerializationStreamReader {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private final TypeSerializer serializer;//b
-    private final ByteBuffer bb;
-    private final String[] strings;
+    private final StringDictionary dictionary;
+    private ByteBuffer bb;
+    private String[] strings;
+    private int stringCount;
+
+    // when the strings are read from the payload, they are decoded lazily from these offsets
+    private ByteBuffer stringTable;
+    private int[] stringOffsets;
+    private int[] stringLengths;
 
     private int claimedTokens;
 
+    // the payload length from the header of the message being read
+    private int payloadLength;
+
+    // how far the string table of the message being read has been read, so that it can be read
+    // in parts as a message arrives - the offset of the next int or string, the session dictionary
+    // size the message expects or -1 if not read yet, the number of strings or -1 if not read yet,
+    // the number of strings read so far, and how many of those were sent in full
+    private int tableOffset;
+    private int tableBase;
+    private int tableCount;
+    private int tableIndex;
+    private int tableAdded;
+
+    // joins messages that arrive in fragments, see append(ByteBuffer, boolean)
+    private final MessageAssembler assembler;
+    // true once the header of a message arriving in fragments has been read
+    private boolean streaming;
+    // true while the remaining fragments of an invalid message are being skipped
+    private boolean skipping;
+
     public ByteBufferSerializationStreamReader(TypeSerializer serializer, ByteBuffer bb, String[] strings) {
-        bb.order(ByteOrder.LITTLE_ENDIAN);
+        this.serializer = serializer;
+        this.dictionary = null;
+        this.assembler = null;
+        reset(bb, strings);
+    }
 
+    public ByteBufferSerializationStreamReader(TypeSerializer serializer, ByteBuffer bb) {
+        this(serializer, bb, (StringDictionary) null);
+    }
+
+    /**
+     * Reads a full payload, which may refer to strings sent in earlier payloads on the same
+     * connection. Payloads must be read in the order they were written, so that the dictionary
+     * stays in sync with the writer's.
+     *
+     * @param dictionary the strings received so far on this connection, or null if the writer
+     *                   doesn't use a session dictionary
+     */
+    public ByteBufferSerializationStreamReader(TypeSerializer serializer, ByteBuffer bb, StringDictionary dictionary) {
         this.serializer = serializer;
+        this.dictionary = dictionary;
+        this.assembler = null;
+        reset(bb);
+    }
+
+    /**
+     * Creates a reader for messages which arrive in fragments, passed to
+     * {@link #append(ByteBuffer, boolean)} as they arrive. Whole messages can still be read with
+     * {@link #reset(ByteBuffer)}.
+     *
+     * @param dictionary the strings received so far on this connection, or null if the writer
+     *                   doesn't use a session dictionary
+     * @param assembler joins the fragments of each message
+     */
+    public ByteBufferSerializationStreamReader(TypeSerializer serializer, StringDictionary dictionary, MessageAssembler assembler) {
+        this.serializer = serializer;
+        this.dictionary = dictionary;
+        this.assembler = assembler;
+    }
+
+    /**
+     * Starts reading a new payload and its separate string table, as with
+     * {@link #ByteBufferSerializationStreamReader(TypeSerializer, ByteBuffer, String[])}, so that
+     * one reader can be reused for each message on a connection.
+     */
+    public void reset(ByteBuffer bb, String[] strings) {
+        prepareToRead();
+        claimedTokens = 0;
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+
         this.bb = bb;
         this.strings = strings;
+        stringCount = strings.length;
+        // the array belongs to the caller, so it mustn't be reused for a later full payload
+        stringTable = null;
+        stringOffsets = null;
+        stringLengths = null;
         int version = bb.getInt();
         int flags = bb.getInt();
         int length = bb.getInt();
@@ -30,49 +112,247 @@ public class ByteBufferSerializationStreamReader extends AbstractSerializationSt
         setFlags(flags);
     }
 
-    public ByteBufferSerializationStreamReader(TypeSerializer serializer, ByteBuffer bb) {
+    /**
+     * Starts reading a new full payload, as with
+     * {@link #ByteBufferSerializationStreamReader(TypeSerializer, ByteBuffer, StringDictionary)},
+     * so that one reader can be reused for each message on a connection. Any session dictionary
+     * this reader was created with is used for the new payload as well.
+     */
+    public void reset(ByteBuffer bb) {
+        readHeader(bb);
+        readStrings(bb);
+    }
+
+    /**
+     * Adds the next fragment of a message, such as a websocket continuation frame, joining the
+     * fragments with the assembler this reader was created with. Returns true once the last
+     * fragment has been added, and the message is ready to be read as if it had been passed to
+     * {@link #reset(ByteBuffer)}, or false if more fragments are expected.
+     *
+     * If the message was written with {@link #FLAG_STRINGS_FIRST}, each string in its table is
+     * decoded as soon as its bytes arrive, so that only the payload is left to read once the last
+     * fragment is added. A message which turns out to be invalid is reported once, and the rest of
+     * its fragments are skipped.
+     */
+    public boolean append(ByteBuffer fragment, boolean last) {
+        if (assembler == null) {
+            throw new IllegalStateException("Reader was not created with a message assembler");
+        }
+        ByteBuffer message = assembler.append(fragment, last);
+        if (skipping) {
+            skipping = message == null;
+            return false;
+        }
+        try {
+            if (message != null) {
+                if (!streaming) {
+                    readHeader(message);
+                }
+                streaming = false;
+                // any strings that haven't been decoded yet will be when first read
+                readStrings(message);
+                return true;
+            }
+            ByteBuffer partial = assembler.getPartialMessage();
+            partial.order(ByteOrder.LITTLE_ENDIAN);
+            if (!streaming) {
+                if (partial.limit() < 3 << 2) {
+                    return false;
+                }
+                readHeader(partial);
+                streaming = true;
+            }
+            if (hasFlags(FLAG_STRINGS_FIRST)) {
+                stringTable = partial;
+                readStringTable(partial, partial.limit(), false, true);
+            }
+            return false;
+        } catch (RuntimeException e) {
+            skipping = !last;
+            streaming = false;
+            throw e;
+        }
+    }
+
+    /**
+     * Starts reading a new message from its header, which may be all that has arrived so far.
+     */
+    private void readHeader(ByteBuffer bb) {
+        prepareToRead();
+        claimedTokens = 0;
         bb.order(ByteOrder.LITTLE_ENDIAN);
 
-        this.serializer = serializer;
-        this.bb = bb;
-        int version = bb.getInt();
-        int flags = bb.getInt();
-        int length = bb.getInt();
+        int version = bb.getInt(0);
+        int flags = bb.getInt(1 << 2);
+        payloadLength = bb.getInt(2 << 2);
+        if (payloadLength < 0) {
+            throw new IllegalArgumentException("Invalid payload length in header: " + payloadLength);
+        }
         setVersion(version);
         setFlags(flags);
 
-        //strings are in the payload, read them out first and assign them
-        String[] strings = new String[0];
-        // see if there is a stringCount, and thus strings present
-        if (bb.limit() > (3 << 2) + length) {
-            int stringsCount = bb.getInt((3 << 2) + length);
-            if (stringsCount < 1) {
+        stringCount = 0;
+        stringTable = null;
+        tableOffset = 3 << 2;
+        tableBase = -1;
+        tableCount = -1;
+        tableIndex = 0;
+        tableAdded = 0;
+    }
+
+    /**
+     * Finds the string table and payload of a whole message, whose header has already been read,
+     * and leaves the buffer ready to read the payload.
+     */
+    private void readStrings(ByteBuffer bb) {
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        this.bb = bb;
+        stringTable = bb.duplicate();
+
+        int payloadStart = 3 << 2;
+        if (hasFlags(FLAG_STRINGS_FIRST)) {
+            // the table is always present, ending where the payload starts
+            payloadStart = bb.limit() - payloadLength;
+            if (payloadStart < 3 << 2) {
+                throw new IllegalArgumentException("Payload claims to have " + payloadLength + " bytes, but only " + (bb.limit() - (3 << 2)) + " follow the header");
+            }
+            readStringTable(bb, payloadStart, true, false);
+            if (tableOffset != payloadStart) {
+                throw new IllegalArgumentException("String table ends at " + tableOffset + ", but the payload starts at " + payloadStart);
+            }
+        } else if (bb.limit() > (3 << 2) + payloadLength) {
+            //strings follow the payload, index them now and decode each one the first time it is read
+            tableOffset = (3 << 2) + payloadLength;
+            readStringTable(bb, bb.limit(), true, false);
+        }
+        finishStringTable();
+
+        // move the limit of the payload to just before strings start (if any)
+        bb.limit(payloadStart + payloadLength);
+
+        // move to the start of the payload, right after the header or string table
+        bb.position(payloadStart);
+    }
+
+    /**
+     * Reads as much of the string table as lies between the current table offset and the end, and
+     * returns true once all of it has been read. Each string is indexed to be decoded the first
+     * time it is read, or if eager, decoded right away.
+     *
+     * @param complete true if end is the end of the table, false if it is only the end of the
+     *                 bytes that have arrived so far, and the rest will be read later
+     */
+    private boolean readStringTable(ByteBuffer buffer, int end, boolean complete, boolean eager) {
+        boolean session = hasFlags(FLAG_SESSION_STRINGS);
+        if (session && tableBase == -1) {
+            if (dictionary == null) {
+                throw new IllegalArgumentException("Payload refers to a session string dictionary, but none was provided");
+            }
+            if (!hasBytes(end, 4, complete)) {
+                return false;
+            }
+            int base = buffer.getInt(tableOffset);
+            if (base != 0 && base != dictionary.size()) {
+                throw new IllegalArgumentException("Payload expects a session string dictionary of " + base + " strings, but it has " + dictionary.size() + ", messages may have been missed or reordered");
+            }
+            tableBase = base;
+            tableOffset += 4;
+        }
+        if (tableCount == -1) {
+            if (!hasBytes(end, 4, complete)) {
+                return false;
+            }
+            int stringsCount = buffer.getInt(tableOffset);
+            tableOffset += 4;
+            // a table written before the payload is present even when empty
+            if (stringsCount < (hasFlags(FLAG_STRINGS_FIRST) ? 0 : 1)) {
                 throw new IllegalArgumentException("Invalid string count in payload: " + stringsCount);
             }
-            bb.position((4 << 2) + length);//3 headers + 1 count
             // ensure there is enough space for at least that many string lengths left
-            if (bb.remaining() < stringsCount << 2) {
-                throw new IllegalArgumentException("Payload claims to have " + stringsCount + " strings, but only has space left for " + (bb.remaining() >> 2));
-            }
-            strings = new String[stringsCount];
-            for (int i = 0; i < stringsCount; i++) {
-                int stringLength = bb.getInt();
-                if (bb.remaining() < stringLength) {
-                    throw new IllegalArgumentException("Payload claims to have a string with length " + stringLength + " but only " + bb.remaining() + " bytes remain");
+            int available = (end - tableOffset) >> 2;
+            if (complete && available < stringsCount) {
+                throw new IllegalArgumentException("Payload claims to have " + stringsCount + " strings, but only has space left for " + available);
+            }
+            // size the arrays by what has arrived rather than the claimed count, and grow them later
+            int capacity = Math.min(stringsCount, available);
+            if (stringOffsets == null || stringOffsets.length < capacity) {
+                strings = new String[capacity];
+                stringOffsets = new int[capacity];
+                stringLengths = new int[capacity];
+            } else {
+                Arrays.fill(strings, 0, Math.min(stringsCount, strings.length), null);
+            }
+            tableCount = stringsCount;
+        }
+        while (tableIndex < tableCount) {
+            if (!hasBytes(end, 4, complete)) {
+                return false;
+            }
+            int stringLength = buffer.getInt(tableOffset);
+            boolean reference = session && stringLength < 0;
+            if (!reference && (stringLength < 0 || end - tableOffset - 4 < stringLength)) {
+                if (stringLength >= 0 && !complete) {
+                    return false;
                 }
-                byte[] bytes = new byte[stringLength];
-                bb.get(bytes);
-                strings[i] = new String(bytes, Charset.forName("UTF-8"));
+                throw new IllegalArgumentException("Payload claims to have a string with length " + stringLength + " but only " + (end - tableOffset - 4) + " bytes remain");
+            }
+            if (tableIndex == stringOffsets.length) {
+                int capacity = Math.max(tableIndex << 1, 16);
+                strings = Arrays.copyOf(strings, capacity);
+                stringOffsets = Arrays.copyOf(stringOffsets, capacity);
+                stringLengths = Arrays.copyOf(stringLengths, capacity);
             }
+            tableOffset += 4;
+            stringLengths[tableIndex] = stringLength;
+            if (!reference) {
+                stringOffsets[tableIndex] = tableOffset;
+                if (eager) {
+                    strings[tableIndex] = decodeString(tableOffset, stringLength);
+                }
+                tableOffset += stringLength;
+                tableAdded++;
+            }
+            tableIndex++;
         }
+        return true;
+    }
 
-        // move back to the starting point, right after the three headers
-        bb.position(3 << 2);
-
-        // move the limit of the payload to just before strings start (if any)
-        bb.limit((3 << 2) + length);
+    private boolean hasBytes(int end, int bytes, boolean complete) {
+        if (end - tableOffset >= bytes) {
+            return true;
+        }
+        if (complete) {
+            throw new IllegalArgumentException("Payload ends partway through its string table");
+        }
+        return false;
+    }
 
-        this.strings = strings;
+    /**
+     * Makes the strings that were read available, and updates the session dictionary with them.
+     */
+    private void finishStringTable() {
+        stringCount = tableCount == -1 ? 0 : tableCount;
+        if (tableBase == -1) {
+            return;
+        }
+        // check the size before changing the dictionary, so a bad payload leaves it intact
+        if (tableBase + tableAdded > dictionary.getMaxSize()) {
+            throw new IllegalArgumentException("Payload would add " + tableAdded + " strings to a session string dictionary of " + tableBase + ", more than its maximum of " + dictionary.getMaxSize());
+        }
+        if (tableBase == 0) {
+            dictionary.clear();
+        }
+        for (int i = 0; i < stringCount; i++) {
+            if (stringLengths[i] < 0) {
+                strings[i] = dictionary.get(-stringLengths[i] - 1);
+            } else {
+                // later payloads may refer to this, so it can't wait until it is read
+                if (strings[i] == null) {
+                    strings[i] = decodeString(stringOffsets[i], stringLengths[i]);
+                }
+                dictionary.add(strings[i]);
+            }
+        }
     }
 
     @Override
@@ -84,9 +364,67 @@ public class ByteBufferSerializationStreamReader extends AbstractSerializationSt
         return instance;
     }
 
+    @Override
+    protected Object deserialize(int typeId) throws com.google.gwt.user.client.rpc.SerializationException {
+        if (!serializer.isReferenceTracked(typeId)) {
+            // never referred back to, so it doesn't take up an index
+            Object instance = serializer.instantiate(this, typeId);
+            serializer.deserialize(this, instance, typeId);
+            return instance;
+        }
+        int id = reserveDecodedObjectIndex();
+        Object instance = serializer.instantiate(this, typeId);
+        rememberDecodedObject(id, instance);
+        serializer.deserialize(this, instance, typeId);
+        return instance;
+    }
+
+    @Override
+    protected int getTypeId(String typeSignature) {
+        return serializer.getTypeId(typeSignature);
+    }
+
+    @Override
+    protected int getTypeCount() {
+        return serializer.getTypeCount();
+    }
+
+    @Override
+    protected String getTypeSignature(int typeId) {
+        return serializer.getTypeSignature(typeId);
+    }
+
     @Override
     protected String getString(int i) {
-        return i > 0 ? strings[i - 1] : null;
+        if (i <= 0) {
+            return null;
+        }
+        if (i > stringCount) {
+            throw new IllegalArgumentException("Unknown string index " + i + ", payload only has " + stringCount + " strings");
+        }
+        String string = strings[i - 1];
+        if (string == null && stringTable != null) {
+            string = decodeString(stringOffsets[i - 1], stringLengths[i - 1]);
+            strings[i - 1] = string;
+        }
+        return string;
+    }
+
+    private String decodeString(int offset, int length) {
+        // most strings are ascii, so try to copy them without going through the decoder
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            byte b = stringTable.get(offset + i);
+            if (b < 0) {
+                byte[] bytes = new byte[length];
+                ByteBuffer source = stringTable.duplicate();
+                source.position(offset);
+                source.get(bytes);
+                return new String(bytes, UTF_8);
+            }
+            chars[i] = (char) b;
+        }
+        return new String(chars);
     }
 
     @Override
@@ -101,6 +439,9 @@ public class ByteBufferSerializationStreamReader extends AbstractSerializationSt
 
     @Override
     public char readChar() throws SerializationException {
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            return (char) readVarInt();
+        }
         return bb.getChar();
     }
 
@@ -116,28 +457,157 @@ public class ByteBufferSerializationStreamReader extends AbstractSerializationSt
 
     @Override
     public int readInt() throws SerializationException {
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
         return bb.getInt();
     }
 
+    @Override
+    protected int readObjectToken() throws SerializationException {
+        if (hasFlags(FLAG_COMPACT_TYPE_IDS) && !hasFlags(FLAG_VARINT_ENCODING)) {
+            // zigzag varint, see ByteBufferSerializationStreamWriter.writeObjectToken
+            int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+        return super.readObjectToken();
+    }
+
     @Override
     public long readLong() throws SerializationException {
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
         return bb.getLong();
     }
 
     @Override
     public short readShort() throws SerializationException {
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            int value = readVarInt();
+            return (short) ((value >>> 1) ^ -(value & 1));
+        }
         return bb.getShort();
     }
 
+    @Override
+    public void readInts(int[] values, int offset, int length) throws SerializationException {
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                values[i] = readInt();
+            }
+            return;
+        }
+        bb.asIntBuffer().get(values, offset, length);
+        bb.position(bb.position() + (length << 2));
+    }
+
+    @Override
+    public void readLongs(long[] values, int offset, int length) throws SerializationException {
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                values[i] = readLong();
+            }
+            return;
+        }
+        bb.asLongBuffer().get(values, offset, length);
+        bb.position(bb.position() + (length << 3));
+    }
+
+    @Override
+    public void readDoubles(double[] values, int offset, int length) throws SerializationException {
+        bb.asDoubleBuffer().get(values, offset, length);
+        bb.position(bb.position() + (length << 3));
+    }
+
+    @Override
+    public void readFloats(float[] values, int offset, int length) throws SerializationException {
+        bb.asFloatBuffer().get(values, offset, length);
+        bb.position(bb.position() + (length << 2));
+    }
+
+    @Override
+    public void readShorts(short[] values, int offset, int length) throws SerializationException {
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                values[i] = readShort();
+            }
+            return;
+        }
+        bb.asShortBuffer().get(values, offset, length);
+        bb.position(bb.position() + (length << 1));
+    }
+
+    @Override
+    public void readBytes(byte[] values, int offset, int length) throws SerializationException {
+        bb.get(values, offset, length);
+    }
+
+    @Override
+    public void readChars(char[] values, int offset, int length) throws SerializationException {
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                values[i] = readChar();
+            }
+            return;
+        }
+        bb.asCharBuffer().get(values, offset, length);
+        bb.position(bb.position() + (length << 1));
+    }
+
+    /**
+     * Reads a count of bytes, followed by that many bytes, as written by
+     * {@link ByteBufferSerializationStreamWriter#writeBytes(ByteBuffer)} or for a {@code byte[]}.
+     * Rather than copying, this returns a read-only slice of the buffer this reader was created
+     * with, so it is only valid for as long as that buffer is - copy it if it must outlive the
+     * message.
+     */
+    public ByteBuffer readBytes() throws SerializationException {
+        int length = readInt();
+        if (length < 0 || length > bb.remaining()) {
+            throw new SerializationException("Payload claims to have " + length + " bytes, but only " + bb.remaining() + " remain");
+        }
+        ByteBuffer bytes = bb.slice();
+        bytes.limit(length);
+        bb.position(bb.position() + length);
+        return bytes.asReadOnlyBuffer();
+    }
+
+    private int readVarInt() throws SerializationException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = bb.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new SerializationException("Malformed varint in payload");
+    }
+
+    private long readVarLong() throws SerializationException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = bb.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new SerializationException("Malformed varint in payload");
+    }
+
     @Override
     public String readString() throws SerializationException {
-        return getString(readInt());
+        return resolveString(readInt());
     }
 
     @Override
     public void claimItems(int slots) throws SerializationException {
         //shift to zero for now to avoid something like a byte[] appearing to be bigger than the entire payload
-        if (claimedTokens + slots > (bb.limit() << 0) + strings.length) {
+        if (claimedTokens + slots > (bb.limit() << 0) + stringCount) {
             throw new SerializationException("Request claims to be larger than it is");
         }
         claimedTokens += slots;
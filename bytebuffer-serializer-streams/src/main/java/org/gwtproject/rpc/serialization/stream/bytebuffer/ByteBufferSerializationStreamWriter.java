@@ -6,7 +6,6 @@ import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStreamWrit
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Objects;
 
@@ -19,22 +18,211 @@ import java.util.Objects;
 public class ByteBufferSerializationStreamWriter  extends AbstractSerializationStreamWriter {
     private ByteBuffer bb;//initial size 1kb
 
+    // the full buffer that the last payload was written to, kept so that it can be reused
+    private ByteBuffer retained;
+
+    // the string section from the last call to getFullPayloadBuffers, returned to the allocator
+    // along with the payload buffer
+    private ByteBuffer stringSection;
+
     private final TypeSerializer serializer;
 
+    private final BufferAllocator allocator;
+
+    private float growthFactor = 2;
+
+    private StringDictionary stringDictionary;
+
+    // for each string in the table, its id in the session dictionary or -1 to send it in full
+    private int[] sessionIds;
+    private int sessionBase;
+
     public ByteBufferSerializationStreamWriter(TypeSerializer serializer) {
+        this(serializer, BufferAllocator.HEAP);
+    }
+
+    public ByteBufferSerializationStreamWriter(TypeSerializer serializer, BufferAllocator allocator) {
         this.serializer = serializer;
-        bb = ByteBuffer.allocate(1024);
+        this.allocator = allocator;
+        bb = allocator.allocate(1024);
         bb.order(ByteOrder.LITTLE_ENDIAN);
         bb.position(3 << 2);
     }
 
+    /**
+     * Prepares this writer to write a new payload. Any buffer that was grown while writing earlier
+     * payloads is kept and reused, so once a payload from this writer has been sent, calling this
+     * will invalidate that payload's contents.
+     */
+    @Override
+    public void prepareToWrite() {
+        super.prepareToWrite();
+        if (bb == null) {
+            bb = retained;
+            retained = null;
+        }
+        releaseStringSection();
+        if (stringDictionary != null) {
+            // the last payload may have been sent without the dictionary
+            addFlags(FLAG_SESSION_STRINGS);
+        }
+        bb.clear();
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        bb.position(3 << 2);
+    }
+
+    /**
+     * Hands this writer's buffers back to its allocator. Neither this writer nor any payload it
+     * produced may be used afterwards.
+     */
+    public void release() {
+        ByteBuffer buffer = bb != null ? bb : retained;
+        bb = null;
+        retained = null;
+        if (buffer != null) {
+            allocator.release(buffer);
+        }
+        releaseStringSection();
+    }
+
+    private void releaseStringSection() {
+        if (stringSection != null) {
+            allocator.release(stringSection);
+            stringSection = null;
+        }
+    }
+
+    /**
+     * Sets how much larger the buffer becomes each time it runs out of space, defaults to 2.
+     */
+    public void setGrowthFactor(float growthFactor) {
+        if (!(growthFactor > 1)) {
+            throw new IllegalArgumentException("Growth factor must be greater than 1: " + growthFactor);
+        }
+        this.growthFactor = growthFactor;
+    }
+
+    /**
+     * Sets the dictionary of strings already sent on this connection, or null to send every string
+     * in full. Strings in the dictionary are written as references to it, and new ones are added,
+     * each time a full payload is produced, so the payloads must be sent in the order they were
+     * produced - see {@link StringDictionary} for the locking this requires. Only
+     * {@link #getFullPayload()} and {@link #getFullPayloadBuffers()} use the dictionary.
+     */
+    public void setStringDictionary(StringDictionary stringDictionary) {
+        this.stringDictionary = stringDictionary;
+        if (stringDictionary == null) {
+            setFlags(getFlags() & ~FLAG_SESSION_STRINGS);
+        } else {
+            addFlags(FLAG_SESSION_STRINGS);
+        }
+    }
+
+    @Override
+    public void reserve(int bytes) {
+        maybeGrow(bytes);
+    }
+
+    TypeSerializer getSerializer() {
+        return serializer;
+    }
+
+    /**
+     * Returns the capacity of the buffer that will be reused by {@link #prepareToWrite()}.
+     */
+    int getCapacity() {
+        return bb != null ? bb.capacity() : retained.capacity();
+    }
+
     /**
      * Gets the bytes for the stream. Can only be called once, will prevent more
-     * data from being written.
+     * data from being written until {@link #prepareToWrite()} is called.
      */
     public ByteBuffer getPayloadBytes() {
         Objects.requireNonNull(bb);
 
+        return finish(bb.position() - (3 << 2));
+    }
+
+    public String[] getFinishedStringTable() {
+        List<String> stringTable = getStringTable();
+        return stringTable.toArray(new String[0]);
+    }
+
+    /**
+     * Gets the header, payload and string table as a single buffer. Like {@link #getPayloadBytes()},
+     * this can only be called once. With {@link #FLAG_STRINGS_FIRST}, the string table comes before
+     * the payload, which costs a copy of the payload, see {@link #getFullPayloadBuffers()} to avoid
+     * it.
+     */
+    public ByteBuffer getFullPayload() {
+        Objects.requireNonNull(bb);
+        int payloadLength = bb.position() - (3 << 2);
+        List<String> stringTable = getStringTable();
+        if (hasFlags(FLAG_STRINGS_FIRST)) {
+            // the string table isn't known until the payload is done, so it has to be copied in
+            // after the table, into a buffer that then replaces this writer's buffer
+            assignSessionIds(stringTable);
+            ByteBuffer full = allocator.allocate((3 << 2) + getStringSectionLength(stringTable) + payloadLength);
+            full.order(ByteOrder.LITTLE_ENDIAN);
+            full.position(3 << 2);
+            writeStringSection(full, stringTable);
+            bb.flip();
+            bb.position(3 << 2);
+            full.put(bb);
+            allocator.release(bb);
+            bb = full;
+        } else if (!stringTable.isEmpty()) {
+            assignSessionIds(stringTable);
+            // grow at most once, then encode the strings directly after the payload
+            maybeGrow(getStringSectionLength(stringTable));
+            writeStringSection(bb, stringTable);
+        }
+        return finish(payloadLength);
+    }
+
+    /**
+     * Gets the same bytes as {@link #getFullPayload()}, but as a header and payload buffer followed
+     * by a string table buffer (if any), suitable for a gathering write, so that the payload never
+     * needs to be grown to fit the strings. With {@link #FLAG_STRINGS_FIRST}, the first buffer is
+     * instead the header and string table, and the second the payload. Like {@link #getPayloadBytes()}, this can only be called
+     * once, and the string table buffer is reused once the writer is prepared again.
+     */
+    public ByteBuffer[] getFullPayloadBuffers() {
+        Objects.requireNonNull(bb);
+        List<String> stringTable = getStringTable();
+        if (hasFlags(FLAG_STRINGS_FIRST)) {
+            // the header and string table, followed by the payload
+            assignSessionIds(stringTable);
+            stringSection = allocator.allocate((3 << 2) + getStringSectionLength(stringTable));
+            stringSection.order(ByteOrder.LITTLE_ENDIAN);
+            stringSection.position(3 << 2);
+            writeStringSection(stringSection, stringTable);
+            stringSection.flip();
+            ByteBuffer payload = getPayloadBytes();
+            for (int i = 0; i < 3; i++) {
+                stringSection.putInt(i << 2, payload.getInt(i << 2));
+            }
+            payload.position(3 << 2);
+            return new ByteBuffer[] {stringSection, payload};
+        }
+        if (stringTable.isEmpty()) {
+            return new ByteBuffer[] {getPayloadBytes()};
+        }
+        assignSessionIds(stringTable);
+        stringSection = allocator.allocate(getStringSectionLength(stringTable));
+        stringSection.order(ByteOrder.LITTLE_ENDIAN);
+        writeStringSection(stringSection, stringTable);
+        stringSection.flip();
+        return new ByteBuffer[] {getPayloadBytes(), stringSection};
+    }
+
+    /**
+     * Writes the header and returns the bytes written so far, then stops any more writes until the
+     * writer is prepared again.
+     */
+    private ByteBuffer finish(int payloadLength) {
+        retained = bb;
         bb.limit(bb.position());
         bb.position(0);
         bb = bb.slice();//http://thecodelesscode.com/case/209
@@ -44,55 +232,129 @@ public class ByteBufferSerializationStreamWriter  extends AbstractSerializationS
         bb.putInt(0 << 2, getVersion());
         bb.putInt(1 << 2, getFlags());
         //mark the size of the payload
-        bb.putInt(2 << 2, bb.limit() - (3 << 2));
+        bb.putInt(2 << 2, payloadLength);
 
         ByteBuffer retVal = bb;
         bb = null;
         return retVal;
     }
 
-    public String[] getFinishedStringTable() {
-        List<String> stringTable = getStringTable();
-        return stringTable.toArray(new String[0]);
+    /**
+     * If there is a session dictionary, looks up each string in it, and adds the ones which are
+     * missing so that later payloads can refer to them. If that would take the dictionary past its
+     * maximum size, it is cleared first, and this payload tells the reader to do the same. A
+     * payload with more new strings than the dictionary can ever hold is sent without it, leaving
+     * the dictionary as it was.
+     */
+    private void assignSessionIds(List<String> stringTable) {
+        if (stringDictionary == null) {
+            sessionIds = null;
+            return;
+        }
+        synchronized (stringDictionary) {
+            int added = 0;
+            for (int i = 0; i < stringTable.size(); i++) {
+                if (stringDictionary.getId(stringTable.get(i)) == -1) {
+                    added++;
+                }
+            }
+            if (added > stringDictionary.getMaxSize()) {
+                // the reader would reject this, so send every string in full for this payload
+                sessionIds = null;
+                setFlags(getFlags() & ~FLAG_SESSION_STRINGS);
+                return;
+            }
+            if (added > 0 && stringDictionary.size() + added > stringDictionary.getMaxSize()) {
+                // rather than tracking which strings are least used, start again
+                stringDictionary.clear();
+            }
+            sessionBase = stringDictionary.size();
+            if (sessionIds == null || sessionIds.length < stringTable.size()) {
+                sessionIds = new int[stringTable.size()];
+            }
+            for (int i = 0; i < stringTable.size(); i++) {
+                String string = stringTable.get(i);
+                int id = stringDictionary.getId(string);
+                sessionIds[i] = id;
+                if (id == -1) {
+                    stringDictionary.add(string);
+                }
+            }
+        }
     }
 
-    public ByteBuffer getFullPayload() {
-        ByteBuffer payloadBytes = getPayloadBytes();
-        List<String> stringTable = getStringTable();
-        int stringCount = stringTable.size();
-        if (stringCount == 0) {
-            return payloadBytes;
+    /**
+     * Returns the size of the string table, as written by {@link #writeStringSection(ByteBuffer, List)}.
+     */
+    private int getStringSectionLength(List<String> stringTable) {
+        // one int to count the strings, and one int per string for its length or session id
+        int length = (1 + stringTable.size()) << 2;
+        if (sessionIds != null) {
+            // the size of the session dictionary before this payload
+            length += 1 << 2;
         }
-
-        // make a buffer big enough to store all strings (and lengths)
-
-        // start with the size of the regular data, one int per string, and one int to count the strings
-        int size = payloadBytes.limit() + ((1 + stringCount) << 2);
-
-        // add the length of each string in bytes, and store the converted strings so we don't need to do it again
-        byte[][] stringBytes = new byte[stringCount][];
-        for (int i = 0; i < stringCount; i++) {
-            byte[] bytes = stringTable.get(i).getBytes(Charset.forName("UTF-8"));
-            stringBytes[i] = bytes;
-            size += bytes.length;
+        for (int i = 0; i < stringTable.size(); i++) {
+            if (sessionIds == null || sessionIds[i] == -1) {
+                length += utf8Length(stringTable.get(i));
+            }
         }
-        ByteBuffer bb = ByteBuffer.allocate(size);
-        bb.order(ByteOrder.LITTLE_ENDIAN);
+        return length;
+    }
 
-        // append the payload, the count of strings, and the strings themselves
-        bb.put(payloadBytes);
-        bb.putInt(stringCount);
-        for (int i = 0; i < stringCount; i++) {
-            byte[] bytes = stringBytes[i];
-            bb.putInt(bytes.length);
-            bb.put(bytes);
+    /**
+     * Writes the string count, then the length in bytes and UTF-8 encoding of each string. The
+     * buffer must already have room for all of it.
+     *
+     * With a session dictionary, the count is preceded by the size the dictionary had before this
+     * payload, zero meaning that it was cleared, and strings already in the dictionary are written
+     * as their id, negated and less one, in place of the length.
+     */
+    private void writeStringSection(ByteBuffer buffer, List<String> stringTable) {
+        if (sessionIds != null) {
+            buffer.putInt(sessionBase);
+        }
+        buffer.putInt(stringTable.size());
+        for (int i = 0; i < stringTable.size(); i++) {
+            if (sessionIds != null && sessionIds[i] != -1) {
+                buffer.putInt(-sessionIds[i] - 1);
+            } else {
+                encodeString(buffer, stringTable.get(i));
+            }
         }
-
-        bb.position(0);
-
-        return bb;
     }
 
+    /**
+     * Appends the string's length in bytes and its UTF-8 encoding to the buffer, without needing an
+     * intermediate byte array.
+     */
+    private static void encodeString(ByteBuffer buffer, String string) {
+        int length = string.length();
+        int lengthPosition = buffer.position();
+        buffer.position(lengthPosition + (1 << 2));
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                buffer.put((byte) (0xf0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired surrogate, replace it the same way that String.getBytes would
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - (1 << 2));
+    }
 
     @Override
     public String toString() {
@@ -101,57 +363,204 @@ public class ByteBufferSerializationStreamWriter  extends AbstractSerializationS
 
     @Override
     public void writeLong(long l) {
-        maybeGrow();
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            writeVarLong((l << 1) ^ (l >> 63));
+            return;
+        }
+        maybeGrow(8);
         bb.putLong(l);
     }
 
     public void writeBoolean(boolean fieldValue) {
-        maybeGrow();
+        maybeGrow(1);
         bb.put((byte) (fieldValue ? 1 : 0));
     }
 
     @Override
     public void writeByte(byte fieldValue) {
-        maybeGrow();
+        maybeGrow(1);
         bb.put(fieldValue);
     }
 
     @Override
     public void writeChar(char ch) {
-        maybeGrow();
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            // never negative, no need for zigzag
+            writeVarInt(ch);
+            return;
+        }
+        maybeGrow(2);
         bb.putChar(ch);
     }
 
     @Override
     public void writeFloat(float fieldValue) {
-        maybeGrow();
+        maybeGrow(4);
         bb.putFloat(fieldValue);
     }
 
     @Override
     public void writeDouble(double fieldValue) {
-        maybeGrow();
+        maybeGrow(8);
         bb.putDouble(fieldValue);
     }
 
     @Override
     public void writeInt(int fieldValue) {
-        maybeGrow();
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            writeVarInt((fieldValue << 1) ^ (fieldValue >> 31));
+            return;
+        }
+        maybeGrow(4);
         bb.putInt(fieldValue);
     }
 
-    private void maybeGrow() {
-        if (bb.remaining() < 8) {//always want at least 8 bytes remaining for doubles or longs
-            ByteBuffer old = bb;
-            bb = ByteBuffer.allocate(old.capacity() * 2);
-            bb.order(ByteOrder.LITTLE_ENDIAN);
-            bb.put((ByteBuffer) old.flip());
+    @Override
+    public void writeInts(int[] values, int offset, int length) {
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                writeInt(values[i]);
+            }
+            return;
+        }
+        maybeGrow((length << 2));
+        bb.asIntBuffer().put(values, offset, length);
+        bb.position(bb.position() + (length << 2));
+    }
+
+    @Override
+    public void writeLongs(long[] values, int offset, int length) {
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                writeLong(values[i]);
+            }
+            return;
+        }
+        maybeGrow((length << 3));
+        bb.asLongBuffer().put(values, offset, length);
+        bb.position(bb.position() + (length << 3));
+    }
+
+    @Override
+    public void writeDoubles(double[] values, int offset, int length) {
+        maybeGrow((length << 3));
+        bb.asDoubleBuffer().put(values, offset, length);
+        bb.position(bb.position() + (length << 3));
+    }
+
+    @Override
+    public void writeFloats(float[] values, int offset, int length) {
+        maybeGrow((length << 2));
+        bb.asFloatBuffer().put(values, offset, length);
+        bb.position(bb.position() + (length << 2));
+    }
+
+    @Override
+    public void writeShorts(short[] values, int offset, int length) {
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                writeShort(values[i]);
+            }
+            return;
         }
+        maybeGrow((length << 1));
+        bb.asShortBuffer().put(values, offset, length);
+        bb.position(bb.position() + (length << 1));
+    }
+
+    @Override
+    public void writeBytes(byte[] values, int offset, int length) {
+        maybeGrow(length);
+        bb.put(values, offset, length);
+    }
+
+    @Override
+    public void writeChars(char[] values, int offset, int length) {
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                writeChar(values[i]);
+            }
+            return;
+        }
+        maybeGrow((length << 1));
+        bb.asCharBuffer().put(values, offset, length);
+        bb.position(bb.position() + (length << 1));
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer, prefixed by their count. This is the same format
+     * that a {@code byte[]} is serialized with, so either can be read back with
+     * {@link ByteBufferSerializationStreamReader#readBytes()}.
+     * The position of the given buffer is not changed.
+     */
+    public void writeBytes(ByteBuffer bytes) {
+        int length = bytes.remaining();
+        writeInt(length);
+        maybeGrow(length);
+        bb.put(bytes.duplicate());
+    }
+
+    /**
+     * In compact mode, object tokens are usually small, so are written as zigzag varints rather
+     * than as fixed size ints.
+     */
+    @Override
+    protected void writeObjectToken(int token) {
+        if (hasFlags(FLAG_COMPACT_TYPE_IDS) && !hasFlags(FLAG_VARINT_ENCODING)) {
+            writeVarInt((token << 1) ^ (token >> 31));
+            return;
+        }
+        super.writeObjectToken(token);
+    }
+
+    /**
+     * Writes the value seven bits at a time (LEB128), least significant group first, with the high
+     * bit of each byte set if more bytes follow. Signed values should be zigzag encoded first, so
+     * that small negative numbers stay small.
+     */
+    private void writeVarInt(int value) {
+        maybeGrow(5);
+        while ((value & ~0x7f) != 0) {
+            bb.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        bb.put((byte) value);
+    }
+
+    private void writeVarLong(long value) {
+        maybeGrow(10);
+        while ((value & ~0x7fL) != 0) {
+            bb.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        bb.put((byte) value);
+    }
+
+    private void maybeGrow(int required) {
+        if (bb.remaining() < required) {
+            bb = grow(bb, required);
+        }
+    }
+
+    /**
+     * Copies the buffer's contents into a new buffer larger by the growth factor, with room for at
+     * least the required number of bytes, and releases the old buffer.
+     */
+    private ByteBuffer grow(ByteBuffer old, int required) {
+        ByteBuffer grown = allocator.allocate(Math.max((int) (old.capacity() * growthFactor), old.position() + required));
+        grown.order(ByteOrder.LITTLE_ENDIAN);
+        grown.put((ByteBuffer) old.flip());
+        allocator.release(old);
+        return grown;
     }
 
     @Override
     public void writeShort(short value) {
-        maybeGrow();
+        if (hasFlags(FLAG_VARINT_ENCODING)) {
+            writeVarInt((value << 1) ^ (value >> 31));
+            return;
+        }
+        maybeGrow(2);
         bb.putShort(value);
     }
 
@@ -161,19 +570,43 @@ public class ByteBufferSerializationStreamWriter  extends AbstractSerializationS
     }
 
     @Override
-    protected String getObjectTypeSignature(Object o) throws SerializationException {
-        Class clazz = o.getClass();
-        if(o instanceof Enum) {
-            Enum e = (Enum)o;
-            clazz = e.getDeclaringClass();
-        }
+    protected int getObjectTypeId(Object o) {
+        return this.serializer.getTypeId(o.getClass());
+    }
+
+    @Override
+    protected int getTypeId(String typeSignature) {
+        return serializer.getTypeId(typeSignature);
+    }
+
+    @Override
+    protected int getTypeCount() {
+        return serializer.getTypeCount();
+    }
+
+    @Override
+    protected boolean isReferenceTracked(int typeId) {
+        return serializer.isReferenceTracked(typeId);
+    }
+
+    @Override
+    protected String getTypeSignature(int typeId) {
+        return this.serializer.getTypeSignature(typeId);
+    }
 
-        return this.serializer.getSerializationSignature(clazz);
+    @Override
+    protected String getObjectTypeSignature(Object o) throws SerializationException {
+        return this.serializer.getSerializationSignature(o.getClass());
     }
 
     @Override
     protected void serialize(Object o, String s) throws com.google.gwt.user.client.rpc.SerializationException {
         this.serializer.serialize(this, o, s);
     }
+
+    @Override
+    protected void serialize(Object o, int typeId) throws com.google.gwt.user.client.rpc.SerializationException {
+        this.serializer.serialize(this, o, typeId);
+    }
 }
 
@@ -0,0 +1,123 @@
+package org.gwtproject.rpc.serialization.stream.bytebuffer;
+
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps a small number of writers around to be reused, along with the buffers they have grown,
+ * so that steady state sends don't need to allocate new writers. Intended to be used per
+ * connection, so that all writers share the same type serializer and flags.
+ *
+ * A writer must only be released once the payload it produced has been sent or copied, as the
+ * next call to {@link #acquire(TypeSerializer)} may overwrite it.
+ */
+public class ByteBufferSerializationStreamWriterPool {
+    /**
+     * Default number of idle writers to keep.
+     */
+    public static final int DEFAULT_MAX_POOLED = 4;
+
+    /**
+     * Default size of the largest buffer to keep, writers which have grown past this will be
+     * discarded rather than pooled.
+     */
+    public static final int DEFAULT_MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private final int flags;
+    private final BufferAllocator allocator;
+    private final int maxPooled;
+    private final int maxRetainedCapacity;
+
+    private final ArrayDeque<ByteBufferSerializationStreamWriter> writers = new ArrayDeque<>();
+
+    private volatile StringDictionary stringDictionary;
+
+    /**
+     * @param flags the flags to set on each new writer
+     */
+    public ByteBufferSerializationStreamWriterPool(int flags) {
+        this(flags, BufferAllocator.HEAP);
+    }
+
+    /**
+     * @param flags the flags to set on each new writer
+     * @param allocator the allocator for new writers to use
+     */
+    public ByteBufferSerializationStreamWriterPool(int flags, BufferAllocator allocator) {
+        this(flags, allocator, DEFAULT_MAX_POOLED, DEFAULT_MAX_RETAINED_CAPACITY);
+    }
+
+    /**
+     * @param flags the flags to set on each new writer
+     * @param maxPooled the maximum number of idle writers to keep
+     * @param maxRetainedCapacity the largest buffer a writer may have to be kept
+     */
+    public ByteBufferSerializationStreamWriterPool(int flags, int maxPooled, int maxRetainedCapacity) {
+        this(flags, BufferAllocator.HEAP, maxPooled, maxRetainedCapacity);
+    }
+
+    /**
+     * @param flags the flags to set on each new writer
+     * @param allocator the allocator for new writers to use
+     * @param maxPooled the maximum number of idle writers to keep
+     * @param maxRetainedCapacity the largest buffer a writer may have to be kept
+     */
+    public ByteBufferSerializationStreamWriterPool(int flags, BufferAllocator allocator, int maxPooled, int maxRetainedCapacity) {
+        this.flags = flags;
+        this.allocator = allocator;
+        this.maxPooled = maxPooled;
+        this.maxRetainedCapacity = maxRetainedCapacity;
+    }
+
+    /**
+     * Sets the session dictionary for every writer acquired from now on to use, or null to send
+     * every string in full.
+     *
+     * @see ByteBufferSerializationStreamWriter#setStringDictionary(StringDictionary)
+     */
+    public void setStringDictionary(StringDictionary stringDictionary) {
+        this.stringDictionary = stringDictionary;
+    }
+
+    public StringDictionary getStringDictionary() {
+        return stringDictionary;
+    }
+
+    /**
+     * Returns a writer ready to be written to, either reused from the pool or newly created.
+     */
+    public ByteBufferSerializationStreamWriter acquire(TypeSerializer serializer) {
+        ByteBufferSerializationStreamWriter writer;
+        synchronized (writers) {
+            writer = writers.pollLast();
+        }
+        if (writer != null && writer.getSerializer() != serializer) {
+            writer.release();
+            writer = null;
+        }
+        if (writer == null) {
+            writer = new ByteBufferSerializationStreamWriter(serializer, allocator);
+            writer.setFlags(flags);
+        }
+        writer.setStringDictionary(stringDictionary);
+        writer.prepareToWrite();
+        return writer;
+    }
+
+    /**
+     * Returns a writer to the pool, once its payload is no longer needed. If the writer is not kept,
+     * its buffer is released to its allocator.
+     */
+    public void release(ByteBufferSerializationStreamWriter writer) {
+        if (writer.getCapacity() <= maxRetainedCapacity) {
+            synchronized (writers) {
+                if (writers.size() < maxPooled) {
+                    writers.addLast(writer);
+                    return;
+                }
+            }
+        }
+        writer.release();
+    }
+}
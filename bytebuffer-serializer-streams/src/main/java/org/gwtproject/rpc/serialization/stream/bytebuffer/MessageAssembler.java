@@ -0,0 +1,157 @@
+package org.gwtproject.rpc.serialization.stream.bytebuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Joins the fragments of a binary message, such as websocket continuation frames or partial
+ * messages from a container, into a single buffer for a {@link ByteBufferSerializationStreamReader}.
+ * The buffer is kept and reused for the next message, so a connection only grows it as large as
+ * its largest message, rather than the container buffering each message on its own.
+ *
+ * The buffer only grows as the bytes of a message actually arrive, never from the length a peer
+ * claims in its header, so a connection can't be made to allocate more than it has sent. Once the
+ * header has arrived, a message that claims to be larger than the maximum is rejected right away.
+ *
+ * Intended to be used per connection, not thread safe.
+ */
+public class MessageAssembler {
+    /**
+     * Default largest message to accept, 4MB.
+     */
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 4 << 20;
+
+    // the version, flags and payload length
+    private static final int HEADER_SIZE = 3 << 2;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final BufferAllocator allocator;
+    private final int maxMessageSize;
+
+    private ByteBuffer buffer;
+
+    // true once a message has been returned, so the buffer must be cleared before the next fragment
+    private boolean returned;
+
+    public MessageAssembler() {
+        this(BufferAllocator.HEAP, DEFAULT_MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * @param allocator the allocator to get the buffer from
+     * @param maxMessageSize the largest message to accept, in bytes
+     */
+    public MessageAssembler(BufferAllocator allocator, int maxMessageSize) {
+        if (maxMessageSize < HEADER_SIZE) {
+            throw new IllegalArgumentException("Max message size must be at least " + HEADER_SIZE + ": " + maxMessageSize);
+        }
+        this.allocator = allocator;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Adds the next fragment of the current message, and returns the whole message once the last
+     * fragment has been added, or null if more are expected. A message that arrives in a single
+     * fragment is returned as is, without being copied. The returned buffer is only valid until
+     * the next call to this method.
+     *
+     * @param fragment the bytes of the fragment, which are all consumed
+     * @param last true if this is the final fragment of the message
+     */
+    public ByteBuffer append(ByteBuffer fragment, boolean last) {
+        if (returned) {
+            buffer.clear();
+            returned = false;
+        }
+        boolean first = buffer == null || buffer.position() == 0;
+        if (last && first) {
+            if (fragment.remaining() > maxMessageSize) {
+                throw tooLarge(fragment.remaining());
+            }
+            return fragment;
+        }
+        int position = buffer == null ? 0 : buffer.position();
+        if (position < HEADER_SIZE && position + fragment.remaining() >= HEADER_SIZE) {
+            // the header is now complete, fail early if the payload alone can't fit - only checked,
+            // since the peer hasn't sent those bytes yet
+            long claimed = HEADER_SIZE + (long) payloadLength(fragment);
+            if (claimed > maxMessageSize) {
+                throw tooLarge(claimed);
+            }
+        }
+        ensureCapacity(fragment.remaining());
+        buffer.put(fragment);
+        if (!last) {
+            return null;
+        }
+        returned = true;
+        ByteBuffer message = buffer.duplicate();
+        message.flip();
+        return message;
+    }
+
+    /**
+     * Returns the bytes of the current message that have arrived so far, valid until the next
+     * call to {@link #append(ByteBuffer, boolean)}.
+     */
+    ByteBuffer getPartialMessage() {
+        if (buffer == null || returned) {
+            return ByteBuffer.allocate(0);
+        }
+        ByteBuffer partial = buffer.duplicate();
+        partial.flip();
+        return partial;
+    }
+
+    /**
+     * Hands the buffer back to the allocator, neither this nor any message it returned may be
+     * used afterwards.
+     */
+    public void release() {
+        if (buffer != null) {
+            allocator.release(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Reads the payload length from the header, which may be split between the buffer and the
+     * fragment being added.
+     */
+    private int payloadLength(ByteBuffer fragment) {
+        int length = 0;
+        int offset = buffer == null ? 0 : buffer.position();
+        for (int i = 0; i < 4; i++) {
+            int index = (2 << 2) + i;
+            byte b = index < offset ? buffer.get(index) : fragment.get(fragment.position() + index - offset);
+            // little endian, see ByteBufferSerializationStreamWriter
+            length |= (b & 0xff) << (i << 3);
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid payload length in message header: " + length);
+        }
+        return length;
+    }
+
+    private void ensureCapacity(int required) {
+        int position = buffer == null ? 0 : buffer.position();
+        if ((long) position + required > maxMessageSize) {
+            throw tooLarge((long) position + required);
+        }
+        if (buffer != null && buffer.remaining() >= required) {
+            return;
+        }
+        int capacity = (int) Math.min(maxMessageSize, Math.max((long) position + required, buffer == null ? INITIAL_CAPACITY : (long) buffer.capacity() << 1));
+        ByteBuffer grown = allocator.allocate(capacity);
+        if (buffer != null) {
+            buffer.flip();
+            grown.put(buffer);
+            allocator.release(buffer);
+        }
+        buffer = grown;
+    }
+
+    private IllegalArgumentException tooLarge(long size) {
+        return new IllegalArgumentException("Message of at least " + size + " bytes is larger than the maximum of " + maxMessageSize);
+    }
+}
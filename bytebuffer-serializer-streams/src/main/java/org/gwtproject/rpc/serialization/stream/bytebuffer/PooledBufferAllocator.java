@@ -0,0 +1,74 @@
+package org.gwtproject.rpc.serialization.stream.bytebuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps released buffers in power-of-two size classes, so that later allocations of a similar
+ * size can reuse them. Requests larger than the maximum pooled capacity go straight to the
+ * underlying allocator, and are never pooled. Can be shared between connections, for example to
+ * keep a slab of direct buffers around.
+ */
+public class PooledBufferAllocator implements BufferAllocator {
+    private final BufferAllocator allocator;
+    private final int maxPooledCapacity;
+    private final int maxPerSizeClass;
+
+    // free buffers, indexed by log2 of their capacity
+    private final List<ArrayDeque<ByteBuffer>> free = new ArrayList<>();
+
+    /**
+     * @param allocator the allocator to create new buffers with
+     * @param maxPooledCapacity the largest buffer to keep, will be rounded up to a power of two
+     * @param maxPerSizeClass the maximum number of free buffers to keep of each size
+     */
+    public PooledBufferAllocator(BufferAllocator allocator, int maxPooledCapacity, int maxPerSizeClass) {
+        this.allocator = allocator;
+        this.maxPooledCapacity = 1 << sizeClass(maxPooledCapacity);
+        this.maxPerSizeClass = maxPerSizeClass;
+        for (int i = 0; i <= sizeClass(maxPooledCapacity); i++) {
+            free.add(new ArrayDeque<>());
+        }
+    }
+
+    @Override
+    public ByteBuffer allocate(int capacity) {
+        if (capacity > maxPooledCapacity) {
+            return allocator.allocate(capacity);
+        }
+        int sizeClass = sizeClass(capacity);
+        ByteBuffer buffer;
+        synchronized (free) {
+            buffer = free.get(sizeClass).pollLast();
+        }
+        if (buffer == null) {
+            return allocator.allocate(1 << sizeClass);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        // only keep buffers that exactly fit a size class
+        if (capacity > maxPooledCapacity || Integer.bitCount(capacity) != 1) {
+            allocator.release(buffer);
+            return;
+        }
+        synchronized (free) {
+            ArrayDeque<ByteBuffer> buffers = free.get(sizeClass(capacity));
+            if (buffers.size() < maxPerSizeClass) {
+                buffers.addLast(buffer);
+                return;
+            }
+        }
+        allocator.release(buffer);
+    }
+
+    private static int sizeClass(int capacity) {
+        return capacity <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(capacity - 1);
+    }
+}
@@ -0,0 +1,94 @@
+package org.gwtproject.rpc.serialization.stream.bytebuffer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Strings shared by the messages sent over a single connection, so that a string only needs to be
+ * sent in full the first time it appears, and later messages can refer to it by id. Each end of the
+ * connection keeps one dictionary for the messages it sends and another for the messages it
+ * receives, and both copies of a dictionary change only as messages are written and read, so they
+ * stay in sync as long as messages are read in the order they were written.
+ *
+ * To keep that order, a sender must hold the dictionary's lock from the time it calls
+ * {@link ByteBufferSerializationStreamWriter#getFullPayload()} until the payload has been queued
+ * to be sent. Once the dictionary would grow past its maximum size, the writer clears it and
+ * starts again, which the reader sees and does the same. The reader rejects a payload that would
+ * take its copy past its maximum size, so both ends must use the same maximum.
+ *
+ * Not thread safe, other than the locking described above.
+ */
+public class StringDictionary {
+    /**
+     * Default number of strings to keep before starting again.
+     */
+    public static final int DEFAULT_MAX_SIZE = 4096;
+
+    private final int maxSize;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+    public StringDictionary() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize the number of strings to keep before the writer clears the dictionary
+     */
+    public StringDictionary(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be at least 1: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of strings in the dictionary, one more than the highest valid id.
+     */
+    public int size() {
+        return strings.size();
+    }
+
+    /**
+     * Returns the id of the string, or -1 if it isn't in the dictionary.
+     */
+    public int getId(String string) {
+        Integer id = ids.get(string);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the string with the given id.
+     */
+    public String get(int id) {
+        if (id < 0 || id >= strings.size()) {
+            throw new IllegalArgumentException("Unknown string id " + id + ", dictionary has " + strings.size() + " strings");
+        }
+        return strings.get(id);
+    }
+
+    /**
+     * Adds the string to the end of the dictionary, and returns its new id.
+     */
+    int add(String string) {
+        int id = strings.size();
+        strings.add(string);
+        ids.put(string, id);
+        return id;
+    }
+
+    /**
+     * Removes every string, so ids will start from zero again.
+     */
+    public void clear() {
+        strings.clear();
+        ids.clear();
+    }
+}
@@ -2,12 +2,17 @@ package org.gwtproject.rpc.serialization.stream.bytebuffer;
 
 import org.gwtproject.rpc.serialization.api.FieldSerializer;
 import org.gwtproject.rpc.serialization.api.SerializationException;
+import org.gwtproject.rpc.serialization.api.SerializationStreamReader;
+import org.gwtproject.rpc.serialization.api.SerializationStreamWriter;
 import org.gwtproject.rpc.serialization.api.TypeSerializer;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
 import org.gwtproject.rpc.serialization.api.impl.TypeSerializerImpl;
+import org.gwtproject.rpc.serialization.api.impl.TypeTable;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 
 import static org.junit.Assert.*;
 
@@ -252,4 +257,916 @@ public class ByteBufferSerializationStreamTest {
         }
     }
 
-}
\ No newline at end of file
+    public static class Node {
+        int value;
+        Node next;
+    }
+
+    private static TypeSerializer nodeTypeSerializer() {
+        return nodeTypeSerializer(new int[0]);
+    }
+
+    private static TypeSerializer nodeTypeSerializer(int[] untrackedTypeIds) {
+        return new TypeSerializerImpl(new TypeTable(
+                new String[] {Node.class.getCanonicalName()},
+                new FieldSerializer[] {nodeFieldSerializer()},
+                untrackedTypeIds
+        )) {
+            @Override
+            public String getChecksum() {
+                return "";
+            }
+        };
+    }
+
+    private static FieldSerializer nodeFieldSerializer() {
+        return new FieldSerializer() {
+            @Override
+            public void serial(SerializationStreamWriter writer, Object instance) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+                writer.writeInt(((Node) instance).value);
+                writer.writeObject(((Node) instance).next);
+            }
+
+            @Override
+            public Object create(SerializationStreamReader reader) {
+                return new Node();
+            }
+
+            @Override
+            public void deserial(SerializationStreamReader reader, Object instance) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+                ((Node) instance).value = reader.readInt();
+                ((Node) instance).next = (Node) reader.readObject();
+            }
+        };
+    }
+
+    private static Node createNodes() {
+        Node first = new Node();
+        first.value = 1;
+        first.next = new Node();
+        first.next.value = 2;
+        first.next.next = new Node();
+        first.next.next.value = 3;
+        first.next.next.next = first;
+        return first;
+    }
+
+    private static void assertNodes(Node read) {
+        assertEquals(1, read.value);
+        assertEquals(2, read.next.value);
+        assertEquals(3, read.next.next.value);
+        assertSame(read, read.next.next.next);
+    }
+
+    @Test
+    public void testObjectsByTypeId() throws Exception {
+        t = nodeTypeSerializer();
+        assertEquals(0, t.getTypeId(Node.class));
+        assertEquals(-1, t.getTypeId(String.class));
+
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.writeObject(createNodes());
+        writer.writeObject(null);
+
+        ByteBufferSerializationStreamReader reader = getSinglePayloadStreamReader(writer);
+        assertNodes((Node) reader.readObject());
+        assertNull(reader.readObject());
+    }
+
+    public enum Color {
+        RED,
+        GREEN {
+            @Override
+            public String toString() {
+                return "green";
+            }
+        }
+    }
+
+    @Test
+    public void testEnumConstantBodyTypeIds() throws Exception {
+        TypeSerializer serializer = new TypeSerializerImpl(new TypeTable(
+                new String[] {Color.class.getCanonicalName()},
+                new FieldSerializer[] {new FieldSerializer() {}}
+        )) {
+            @Override
+            public String getChecksum() {
+                return "";
+            }
+        };
+        assertNotSame(Color.class, Color.GREEN.getClass());
+        assertEquals(0, serializer.getTypeId(Color.RED.getClass()));
+        assertEquals(0, serializer.getTypeId(Color.GREEN.getClass()));
+        assertEquals(Color.class.getCanonicalName(), serializer.getSerializationSignature(Color.GREEN.getClass()));
+        // hits are cached, misses are looked up again
+        assertEquals(0, serializer.getTypeId(Color.GREEN.getClass()));
+        assertEquals(-1, serializer.getTypeId(Node.class));
+        assertEquals(-1, serializer.getTypeId(Node.class));
+        assertEquals(Node.class.getCanonicalName(), serializer.getSerializationSignature(Node.class));
+    }
+
+    @Test
+    public void testUnknownSignatureResolvedOnce() throws Exception {
+        int[] lookups = new int[1];
+        FieldSerializer nodeSerializer = nodeFieldSerializer();
+        t = new TypeSerializerImpl() {
+            @Override
+            protected FieldSerializer serializer(String name) {
+                return nodeSerializer;
+            }
+
+            @Override
+            public int getTypeId(String typeSignature) {
+                lookups[0]++;
+                return -1;
+            }
+
+            @Override
+            public String getChecksum() {
+                return "";
+            }
+        };
+
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        for (int i = 0; i < 3; i++) {
+            Node node = new Node();
+            node.value = i;
+            writer.writeObject(node);
+        }
+
+        ByteBufferSerializationStreamReader reader = getSinglePayloadStreamReader(writer);
+        lookups[0] = 0;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, ((Node) reader.readObject()).value);
+        }
+        // the signature isn't a known type, but that is only looked up the first time
+        assertEquals(1, lookups[0]);
+    }
+
+    @Test
+    public void testCompactTypeIds() throws Exception {
+        t = nodeTypeSerializer();
+
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.writeObject(createNodes());
+        int withSignatures = writer.getFullPayload().remaining();
+
+        writer = getStreamWriter();
+        writer.setFlags(ByteBufferSerializationStreamWriter.FLAG_COMPACT_TYPE_IDS);
+        writer.writeObject(createNodes());
+        writer.writeObject(null);
+        assertEquals(0, writer.getFinishedStringTable().length);
+        ByteBuffer payload = writer.getFullPayload();
+        assertTrue(payload.remaining() < withSignatures);
+
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, payload);
+        assertTrue(reader.hasFlags(ByteBufferSerializationStreamReader.FLAG_COMPACT_TYPE_IDS));
+        assertNodes((Node) reader.readObject());
+        assertNull(reader.readObject());
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        t = nodeTypeSerializer();
+
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.writeObject(createNodes());
+        writer.writeString("first");
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, writer.getFullPayload());
+        assertNodes((Node) reader.readObject());
+        assertEquals("first", reader.readString());
+
+        // back-references and string indices start again for the next payload
+        writer = getStreamWriter();
+        writer.writeString("second");
+        writer.writeObject(createNodes());
+        writer.writeInt(3);
+        reader.reset(writer.getFullPayload());
+        assertEquals("second", reader.readString());
+        assertNodes((Node) reader.readObject());
+        assertEquals(3, reader.readInt());
+
+        writer = getStreamWriter();
+        writer.writeInt(4);
+        reader.reset(writer.getFullPayload());
+        assertEquals(4, reader.readInt());
+    }
+
+    @Test
+    public void testMessageAssembler() throws Exception {
+        t = nodeTypeSerializer();
+        MessageAssembler assembler = new MessageAssembler();
+        for (int fragmentSize : new int[] {1, 5, 12, 13, 1000}) {
+            ByteBufferSerializationStreamWriter writer = getStreamWriter();
+            writer.writeObject(createNodes());
+            writer.writeString("\u00e9t\u00e9");
+            writer.writeInt(fragmentSize);
+            ByteBuffer payload = writer.getFullPayload();
+
+            ByteBuffer message = null;
+            while (payload.hasRemaining()) {
+                ByteBuffer fragment = payload.slice();
+                fragment.limit(Math.min(fragmentSize, fragment.remaining()));
+                payload.position(payload.position() + fragment.remaining());
+                assertNull(message);
+                message = assembler.append(fragment, !payload.hasRemaining());
+            }
+
+            ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, message);
+            assertNodes((Node) reader.readObject());
+            assertEquals("\u00e9t\u00e9", reader.readString());
+            assertEquals(fragmentSize, reader.readInt());
+        }
+
+        MessageAssembler limited = new MessageAssembler(BufferAllocator.HEAP, 16);
+        assertNull(limited.append(ByteBuffer.allocate(8), false));
+        try {
+            limited.append(ByteBuffer.allocate(12), true);
+            fail("Expected the message to be too large");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStringsFirst() throws Exception {
+        t = nodeTypeSerializer();
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.addFlags(ByteBufferSerializationStreamWriter.FLAG_STRINGS_FIRST);
+        writer.writeObject(createNodes());
+        writer.writeString("\u00e9t\u00e9");
+        writer.writeInt(4);
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, writer.getFullPayload());
+        assertNodes((Node) reader.readObject());
+        assertEquals("\u00e9t\u00e9", reader.readString());
+        assertEquals(4, reader.readInt());
+
+        // the same bytes as a header and string table buffer, then the payload
+        writer.prepareToWrite();
+        writer.writeString("foo");
+        writer.writeInt(5);
+        ByteBuffer[] buffers = writer.getFullPayloadBuffers();
+        assertEquals(2, buffers.length);
+        ByteBuffer joined = ByteBuffer.allocate(buffers[0].remaining() + buffers[1].remaining());
+        joined.put(buffers[0]).put(buffers[1]).flip();
+        reader.reset(joined);
+        assertEquals("foo", reader.readString());
+        assertEquals(5, reader.readInt());
+
+        // the table is written even when empty, so the reader knows where the payload starts
+        writer.prepareToWrite();
+        writer.writeInt(6);
+        reader.reset(writer.getFullPayload());
+        assertEquals(6, reader.readInt());
+
+        // with a session dictionary
+        StringDictionary received = new StringDictionary();
+        writer.setStringDictionary(new StringDictionary());
+        for (int i = 0; i < 2; i++) {
+            writer.prepareToWrite();
+            writer.writeString("bar");
+            writer.writeInt(i);
+            reader = new ByteBufferSerializationStreamReader(t, writer.getFullPayload(), received);
+            assertEquals("bar", reader.readString());
+            assertEquals(i, reader.readInt());
+        }
+        assertEquals(1, received.size());
+    }
+
+    @Test
+    public void testStringsFirstFragments() throws Exception {
+        t = nodeTypeSerializer();
+        StringDictionary sent = new StringDictionary();
+        StringDictionary received = new StringDictionary();
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, received, new MessageAssembler());
+        for (int flags : new int[] {0, ByteBufferSerializationStreamWriter.FLAG_STRINGS_FIRST}) {
+            for (int fragmentSize : new int[] {1, 5, 12, 13, 17, 1000}) {
+                ByteBufferSerializationStreamWriter writer = getStreamWriter();
+                writer.addFlags(flags);
+                writer.setStringDictionary(sent);
+                writer.writeObject(createNodes());
+                writer.writeString("\u00e9t\u00e9");
+                writer.writeString("fragment " + fragmentSize);
+                writer.writeInt(fragmentSize);
+                ByteBuffer payload = writer.getFullPayload();
+
+                boolean ready = false;
+                while (payload.hasRemaining()) {
+                    ByteBuffer fragment = payload.slice();
+                    fragment.limit(Math.min(fragmentSize, fragment.remaining()));
+                    payload.position(payload.position() + fragment.remaining());
+                    assertFalse(ready);
+                    ready = reader.append(fragment, !payload.hasRemaining());
+                }
+                assertTrue(ready);
+
+                assertNodes((Node) reader.readObject());
+                assertEquals("\u00e9t\u00e9", reader.readString());
+                assertEquals("fragment " + fragmentSize, reader.readString());
+                assertEquals(fragmentSize, reader.readInt());
+                assertEquals(sent.size(), received.size());
+            }
+        }
+
+        // an invalid message is reported once, and the next one can still be read
+        ByteBuffer invalid = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        invalid.putInt(0).putInt(ByteBufferSerializationStreamWriter.FLAG_STRINGS_FIRST).putInt(0).putInt(-5).flip();
+        ByteBuffer header = invalid.slice();
+        header.limit(16);
+        try {
+            reader.append(header, false);
+            fail("Expected the string count to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        invalid.position(16);
+        assertFalse(reader.append(invalid, true));
+
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.addFlags(ByteBufferSerializationStreamWriter.FLAG_STRINGS_FIRST);
+        writer.writeString("after");
+        assertTrue(reader.append(writer.getFullPayload(), true));
+        assertEquals("after", reader.readString());
+    }
+
+    @Test
+    public void testMessageAssemblerClaimedLength() throws Exception {
+        int[] largest = new int[1];
+        BufferAllocator allocator = capacity -> {
+            largest[0] = Math.max(largest[0], capacity);
+            return ByteBuffer.allocate(capacity);
+        };
+        MessageAssembler assembler = new MessageAssembler(allocator, MessageAssembler.DEFAULT_MAX_MESSAGE_SIZE);
+
+        // a header claiming a payload just under the maximum doesn't allocate any of it up front
+        ByteBuffer header = ByteBuffer.allocate(3 << 2).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0).putInt(0).putInt(MessageAssembler.DEFAULT_MAX_MESSAGE_SIZE - 100).flip();
+        assertNull(assembler.append(header, false));
+        assertNull(assembler.append(ByteBuffer.allocate(100), false));
+        assertTrue(largest[0] <= 1024);
+
+        // a header claiming more than the maximum is rejected as soon as it arrives
+        MessageAssembler other = new MessageAssembler(allocator, MessageAssembler.DEFAULT_MAX_MESSAGE_SIZE);
+        header.clear();
+        header.putInt(0).putInt(0).putInt(Integer.MAX_VALUE).flip();
+        try {
+            other.append(header, false);
+            fail("Expected the message to be too large");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        assertTrue(largest[0] <= 1024);
+    }
+
+    @Test
+    public void testDeclaredObjects() throws Exception {
+        t = nodeTypeSerializer();
+
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.setFlags(ByteBufferSerializationStreamWriter.FLAG_COMPACT_TYPE_IDS);
+        Node nodes = createNodes();
+        // written the way a generated field serializer writes a field of a final type
+        for (Node node : new Node[] {nodes, null, nodes}) {
+            if (writer.writeDeclaredObject(node, true)) {
+                writer.writeInt(node.value);
+                writer.writeObject(node.next);
+            }
+        }
+
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, writer.getFullPayload());
+        Node[] read = new Node[3];
+        for (int i = 0; i < read.length; i++) {
+            Object value = reader.readDeclaredObject();
+            if (value == SerializationStreamReader.NEW_OBJECT) {
+                Node created = new Node();
+                reader.rememberDeclaredObject(created, true);
+                created.value = reader.readInt();
+                created.next = (Node) reader.readObject();
+                value = created;
+            }
+            read[i] = (Node) value;
+        }
+        // the cycle back to the first node was written by writeObject, as a reference to the declared object
+        assertNodes(read[0]);
+        assertNull(read[1]);
+        assertSame(read[0], read[2]);
+    }
+
+    @Test
+    public void testBackReferences() throws Exception {
+        t = nodeTypeSerializer();
+        Node[] nodes = new Node[1000];
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Node();
+            nodes[i].value = i;
+            writer.writeObject(nodes[i]);
+        }
+        // write them all again, in reverse, and each should be a reference to the first copy
+        for (int i = nodes.length - 1; i >= 0; i--) {
+            writer.writeObject(nodes[i]);
+        }
+
+        ByteBufferSerializationStreamReader reader = getSinglePayloadStreamReader(writer);
+        Node[] read = new Node[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            read[i] = (Node) reader.readObject();
+            assertEquals(i, read[i].value);
+        }
+        for (int i = nodes.length - 1; i >= 0; i--) {
+            assertSame(read[i], reader.readObject());
+        }
+    }
+
+    @Test
+    public void testUntrackedType() throws Exception {
+        t = nodeTypeSerializer(new int[] {0});
+        assertFalse(t.isReferenceTracked(0));
+
+        for (int flags : new int[] {0, ByteBufferSerializationStreamWriter.FLAG_COMPACT_TYPE_IDS}) {
+            Node node = new Node();
+            node.value = 5;
+            ByteBufferSerializationStreamWriter writer = getStreamWriter();
+            writer.setFlags(flags);
+            writer.writeObject(node);
+            writer.writeObject(node);
+            writer.writeInt(6);
+
+            ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, writer.getFullPayload());
+            Node first = (Node) reader.readObject();
+            Node second = (Node) reader.readObject();
+            // written in full both times, rather than as a reference
+            assertNotSame(first, second);
+            assertEquals(5, first.value);
+            assertEquals(5, second.value);
+            assertEquals(6, reader.readInt());
+        }
+    }
+
+    @Test
+    public void testStringDictionary() throws Exception {
+        t = nodeTypeSerializer();
+
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.setFlags(ByteBufferSerializationStreamWriter.FLAG_STRING_DICTIONARY);
+        writer.writeString("first");
+        writer.writeObject(createNodes());
+        writer.writeString(Node.class.getCanonicalName());
+        writer.writeString("first");
+        writer.writeString(null);
+        // only strings outside the dictionary are sent
+        assertArrayEquals(new String[] {"first"}, writer.getFinishedStringTable());
+
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, writer.getFullPayload());
+        assertEquals("first", reader.readString());
+        assertNodes((Node) reader.readObject());
+        assertEquals(Node.class.getCanonicalName(), reader.readString());
+        assertEquals("first", reader.readString());
+        assertNull(reader.readString());
+    }
+
+    @Test
+    public void testSessionStrings() throws Exception {
+        StringDictionary sent = new StringDictionary(3);
+        StringDictionary received = new StringDictionary(3);
+
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.setStringDictionary(sent);
+        writer.writeString("alice");
+        writer.writeString("hello");
+        ByteBuffer first = writer.getFullPayload();
+        assertEquals(2, sent.size());
+
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, first, received);
+        assertEquals("alice", reader.readString());
+        assertEquals("hello", reader.readString());
+        assertEquals(2, received.size());
+
+        writer.prepareToWrite();
+        writer.writeString("alice");
+        writer.writeString("\u00e9t\u00e9");
+        writer.writeString("alice");
+        ByteBuffer second = writer.getFullPayload();
+        assertEquals(3, sent.size());
+
+        reader = new ByteBufferSerializationStreamReader(t, second, received);
+        assertEquals("alice", reader.readString());
+        assertEquals("\u00e9t\u00e9", reader.readString());
+        assertEquals("alice", reader.readString());
+        assertEquals(3, received.size());
+
+        // the dictionary is full, so both ends start again
+        writer.prepareToWrite();
+        writer.writeString("bob");
+        writer.writeString("hello");
+        reader = new ByteBufferSerializationStreamReader(t, writer.getFullPayload(), received);
+        assertEquals("bob", reader.readString());
+        assertEquals("hello", reader.readString());
+        assertEquals(2, sent.size());
+        assertEquals(2, received.size());
+        assertEquals(sent.getId("hello"), received.getId("hello"));
+
+        // a missed message is detected rather than resolving the wrong strings
+        writer.prepareToWrite();
+        writer.writeString("carol");
+        writer.getFullPayload();
+        writer.prepareToWrite();
+        writer.writeString("bob");
+        writer.writeString("carol");
+        ByteBuffer afterMissed = writer.getFullPayload();
+        try {
+            new ByteBufferSerializationStreamReader(t, afterMissed, received);
+            fail("Expected the reader to notice the missed message");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        // without a dictionary, the payload can't be read at all
+        writer.prepareToWrite();
+        writer.writeString("bob");
+        ByteBuffer noDictionary = writer.getFullPayload();
+        try {
+            new ByteBufferSerializationStreamReader(t, noDictionary);
+            fail("Expected the reader to require a dictionary");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSessionStringsMaxSize() throws Exception {
+        StringDictionary sent = new StringDictionary(2);
+        StringDictionary received = new StringDictionary(2);
+
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.setStringDictionary(sent);
+        writer.writeString("alice");
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, writer.getFullPayload(), received);
+        assertEquals("alice", reader.readString());
+
+        // more new strings than the dictionary can hold are sent without it
+        writer.prepareToWrite();
+        writer.writeString("bob");
+        writer.writeString("carol");
+        writer.writeString("dave");
+        reader = new ByteBufferSerializationStreamReader(t, writer.getFullPayload(), received);
+        assertEquals("bob", reader.readString());
+        assertEquals("carol", reader.readString());
+        assertEquals("dave", reader.readString());
+        assertEquals(1, sent.size());
+        assertEquals(1, received.size());
+
+        // the next payload uses the dictionary again
+        writer.prepareToWrite();
+        writer.writeString("alice");
+        writer.writeString("bob");
+        reader = new ByteBufferSerializationStreamReader(t, writer.getFullPayload(), received);
+        assertEquals("alice", reader.readString());
+        assertEquals("bob", reader.readString());
+        assertEquals(2, received.size());
+
+        // a payload from a writer with a larger dictionary is rejected before changing this one
+        ByteBufferSerializationStreamWriter larger = getStreamWriter();
+        larger.setStringDictionary(new StringDictionary(10));
+        larger.writeString("erin");
+        larger.writeString("frank");
+        larger.writeString("grace");
+        StringDictionary small = new StringDictionary(2);
+        small.add("heidi");
+        try {
+            new ByteBufferSerializationStreamReader(t, larger.getFullPayload(), small);
+            fail("Expected the reader to reject a payload larger than its dictionary");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        assertEquals(1, small.size());
+        assertEquals("heidi", small.get(0));
+    }
+
+    private ByteBufferSerializationStreamWriter getVarintStreamWriter() {
+        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(t);
+        writer.setFlags(ByteBufferSerializationStreamWriter.FLAG_VARINT_ENCODING);
+        return writer;
+    }
+
+    private ByteBufferSerializationStreamReader getVarintStreamReader(ByteBufferSerializationStreamWriter writer) {
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, writer.getFullPayload());
+        assertEquals(ByteBufferSerializationStreamReader.FLAG_VARINT_ENCODING, reader.getFlags());
+        return reader;
+    }
+
+    @Test
+    public void testVarintInt() throws Exception {
+        int[] values = {0, 1, -1, 63, -64, 64, 127, 128, 300, -300, Short.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        ByteBufferSerializationStreamWriter writer = getVarintStreamWriter();
+        for (int value : values) {
+            writer.writeInt(value);
+        }
+
+        ByteBufferSerializationStreamReader reader = getVarintStreamReader(writer);
+        for (int value : values) {
+            assertEquals(value, reader.readInt());
+        }
+    }
+
+    @Test
+    public void testVarintLong() throws Exception {
+        long[] values = {0, 1, -1, 300, -300, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        ByteBufferSerializationStreamWriter writer = getVarintStreamWriter();
+        for (long value : values) {
+            writer.writeLong(value);
+        }
+
+        ByteBufferSerializationStreamReader reader = getVarintStreamReader(writer);
+        for (long value : values) {
+            assertEquals(value, reader.readLong());
+        }
+    }
+
+    @Test
+    public void testVarintShortAndChar() throws Exception {
+        ByteBufferSerializationStreamWriter writer = getVarintStreamWriter();
+        writer.writeShort((short) 0);
+        writer.writeShort(Short.MAX_VALUE);
+        writer.writeShort(Short.MIN_VALUE);
+        writer.writeChar('a');
+        writer.writeChar(Character.MAX_VALUE);
+        writer.writeString("foo");
+        writer.writeDouble(1.23);
+
+        ByteBufferSerializationStreamReader reader = getVarintStreamReader(writer);
+        assertEquals((short) 0, reader.readShort());
+        assertEquals(Short.MAX_VALUE, reader.readShort());
+        assertEquals(Short.MIN_VALUE, reader.readShort());
+        assertEquals('a', reader.readChar());
+        assertEquals(Character.MAX_VALUE, reader.readChar());
+        assertEquals("foo", reader.readString());
+        assertEquals(1.23, reader.readDouble(), 0);
+    }
+
+    @Test
+    public void testVarintSmallerPayload() throws Exception {
+        ByteBufferSerializationStreamWriter fixed = getStreamWriter();
+        ByteBufferSerializationStreamWriter varint = getVarintStreamWriter();
+        // zigzag encoding fits -64 through 63 in a single byte
+        for (int i = -64; i < 64; i++) {
+            fixed.writeInt(i);
+            varint.writeInt(i);
+        }
+        // header is always 12 bytes
+        assertEquals(12 + 128 * 4, fixed.getFullPayload().remaining());
+        assertEquals(12 + 128, varint.getFullPayload().remaining());
+    }
+
+    @Test
+    public void testReuseWriter() throws Exception {
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        // write enough to grow the buffer a few times
+        for (int i = 0; i < 1000; i++) {
+            writer.writeInt(i);
+        }
+        writer.writeString("foo");
+        ByteBufferSerializationStreamReader reader = getSinglePayloadStreamReader(writer);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, reader.readInt());
+        }
+        assertEquals("foo", reader.readString());
+        int capacity = writer.getCapacity();
+
+        writer.prepareToWrite();
+        writer.writeString("bar");
+        writer.writeInt(5);
+        assertEquals(capacity, writer.getCapacity());
+
+        reader = getSinglePayloadStreamReader(writer);
+        assertEquals("bar", reader.readString());
+        assertEquals(5, reader.readInt());
+    }
+
+    @Test
+    public void testWriterPool() throws Exception {
+        ByteBufferSerializationStreamWriterPool pool = new ByteBufferSerializationStreamWriterPool(0, 1, 2048);
+
+        ByteBufferSerializationStreamWriter first = pool.acquire(t);
+        first.writeInt(1);
+        first.getFullPayload();
+        pool.release(first);
+
+        ByteBufferSerializationStreamWriter second = pool.acquire(t);
+        assertSame(first, second);
+        assertNotSame(second, pool.acquire(t));
+
+        // writers with large buffers are not kept
+        for (int i = 0; i < 1000; i++) {
+            second.writeInt(i);
+        }
+        second.getFullPayload();
+        pool.release(second);
+        assertNotSame(second, pool.acquire(t));
+    }
+
+    @Test
+    public void testStringEncoding() throws Exception {
+        String[] values = {"", "ascii", "\u00e9t\u00e9", "\u2713", "\ud83d\ude00", "unpaired \ud83d", "unpaired \ude00 low", "\ude00\ud83d", "\0"};
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        for (String value : values) {
+            // the same length that the string streams use for their Content-Length
+            assertEquals(value, value.getBytes(StandardCharsets.UTF_8).length, AbstractSerializationStream.utf8Length(value));
+            writer.writeString(value);
+        }
+
+        ByteBufferSerializationStreamReader reader = getSinglePayloadStreamReader(writer);
+        for (String value : values) {
+            // match the replacement that the JVM's own encoder makes
+            assertEquals(new String(value.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), reader.readString());
+        }
+    }
+
+    @Test
+    public void testStringsDecodedOnDemand() throws Exception {
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.writeString("first");
+        writer.writeString("\u00e9t\u00e9");
+        writer.writeString("first");
+        writer.writeString(null);
+
+        ByteBufferSerializationStreamReader reader = getSinglePayloadStreamReader(writer);
+        String first = reader.readString();
+        assertEquals("first", first);
+        assertEquals("\u00e9t\u00e9", reader.readString());
+        // decoded once and then reused
+        assertSame(first, reader.readString());
+        assertNull(reader.readString());
+    }
+
+    @Test
+    public void testFullPayloadBuffers() throws Exception {
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.writeInt(1);
+        writer.writeString("foo");
+        writer.writeString("bar");
+        writer.writeString("foo");
+
+        ByteBuffer[] buffers = writer.getFullPayloadBuffers();
+        assertEquals(2, buffers.length);
+        ByteBuffer joined = ByteBuffer.allocate(buffers[0].remaining() + buffers[1].remaining());
+        joined.put(buffers[0]).put(buffers[1]).flip();
+
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, joined);
+        assertEquals(1, reader.readInt());
+        assertEquals("foo", reader.readString());
+        assertEquals("bar", reader.readString());
+        assertEquals("foo", reader.readString());
+    }
+
+    @Test
+    public void testFullPayloadBuffersReleased() throws Exception {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(BufferAllocator.HEAP, 4096, 4);
+        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(t, allocator);
+        writer.writeString("foo");
+        ByteBuffer stringSection = writer.getFullPayloadBuffers()[1];
+
+        // preparing to write again hands the string section back to be reused
+        writer.prepareToWrite();
+        writer.writeString("bar");
+        assertSame(stringSection, writer.getFullPayloadBuffers()[1]);
+
+        writer.release();
+        assertSame(stringSection, allocator.allocate(stringSection.capacity()));
+    }
+
+    @Test
+    public void testDirectAllocator() throws Exception {
+        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(t, BufferAllocator.DIRECT);
+        writer.setFlags(0);
+        for (int i = 0; i < 1000; i++) {
+            writer.writeInt(i);
+        }
+        writer.writeString("foo");
+        ByteBuffer payload = writer.getFullPayload();
+        assertTrue(payload.isDirect());
+
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, payload);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, reader.readInt());
+        }
+        assertEquals("foo", reader.readString());
+    }
+
+    @Test
+    public void testPooledAllocator() {
+        PooledBufferAllocator allocator = new PooledBufferAllocator(BufferAllocator.HEAP, 4096, 1);
+        ByteBuffer first = allocator.allocate(1000);
+        assertEquals(1024, first.capacity());
+        first.putInt(1);
+        allocator.release(first);
+
+        ByteBuffer second = allocator.allocate(1024);
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertNotSame(second, allocator.allocate(1024));
+
+        // too large to pool
+        ByteBuffer large = allocator.allocate(5000);
+        assertEquals(5000, large.capacity());
+        allocator.release(large);
+        assertNotSame(large, allocator.allocate(5000));
+    }
+
+    @Test
+    public void testReserve() throws Exception {
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.setGrowthFactor(1.5f);
+        writer.writeInt(1);
+        writer.reserve(10_000 * 4);
+        int capacity = writer.getCapacity();
+        assertTrue(capacity >= 12 + 4 + 10_000 * 4);
+        for (int i = 0; i < 10_000; i++) {
+            writer.writeInt(i);
+        }
+        // no more growth was needed
+        assertEquals(capacity, writer.getCapacity());
+
+        ByteBufferSerializationStreamReader reader = getSinglePayloadStreamReader(writer);
+        assertEquals(1, reader.readInt());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, reader.readInt());
+        }
+    }
+
+    @Test
+    public void testBulkPrimitives() throws Exception {
+        int[] ints = {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        long[] longs = {0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE};
+        double[] doubles = {0, 1.23, Double.MAX_VALUE, Double.MIN_VALUE};
+        float[] floats = {0, 1.23f, Float.MAX_VALUE, Float.MIN_VALUE};
+        short[] shorts = {0, 1, -1, Short.MAX_VALUE, Short.MIN_VALUE};
+        byte[] bytes = {0, 1, -1, Byte.MAX_VALUE, Byte.MIN_VALUE};
+        char[] chars = {0, 'a', Character.MAX_VALUE};
+
+        for (int flags : new int[] {0, ByteBufferSerializationStreamWriter.FLAG_VARINT_ENCODING}) {
+            ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(t);
+            writer.setFlags(flags);
+            writer.writeInts(ints, 1, 4);
+            writer.writeLongs(longs, 0, longs.length);
+            writer.writeDoubles(doubles, 0, doubles.length);
+            writer.writeFloats(floats, 0, floats.length);
+            writer.writeShorts(shorts, 0, shorts.length);
+            writer.writeBytes(bytes, 0, bytes.length);
+            writer.writeChars(chars, 0, chars.length);
+            writer.writeInt(7);
+
+            // read some values back one at a time, to make sure the bulk and single formats match
+            ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(t, writer.getFullPayload());
+            int[] readInts = new int[5];
+            readInts[0] = reader.readInt();
+            reader.readInts(readInts, 1, 3);
+            assertArrayEquals(new int[] {1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 0}, readInts);
+            long[] readLongs = new long[longs.length];
+            reader.readLongs(readLongs, 0, readLongs.length);
+            assertArrayEquals(longs, readLongs);
+            double[] readDoubles = new double[doubles.length];
+            reader.readDoubles(readDoubles, 0, readDoubles.length);
+            assertArrayEquals(doubles, readDoubles, 0);
+            float[] readFloats = new float[floats.length];
+            reader.readFloats(readFloats, 0, readFloats.length);
+            assertArrayEquals(floats, readFloats, 0);
+            assertEquals(0, reader.readShort());
+            short[] readShorts = new short[shorts.length - 1];
+            reader.readShorts(readShorts, 0, readShorts.length);
+            assertArrayEquals(new short[] {1, -1, Short.MAX_VALUE, Short.MIN_VALUE}, readShorts);
+            byte[] readBytes = new byte[bytes.length];
+            reader.readBytes(readBytes, 0, readBytes.length);
+            assertArrayEquals(bytes, readBytes);
+            char[] readChars = new char[chars.length];
+            reader.readChars(readChars, 0, readChars.length);
+            assertArrayEquals(chars, readChars);
+            assertEquals(7, reader.readInt());
+        }
+    }
+
+    @Test
+    public void testByteBuffers() throws Exception {
+        ByteBuffer blob = ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5});
+        blob.position(1);
+
+        ByteBufferSerializationStreamWriter writer = getStreamWriter();
+        writer.writeBytes(blob);
+        // same as a generated byte[] serializer would write
+        writer.writeInt(2);
+        writer.writeBytes(new byte[] {6, 7}, 0, 2);
+        writer.writeInt(8);
+        // the source buffer is left alone
+        assertEquals(1, blob.position());
+
+        ByteBufferSerializationStreamReader reader = getSinglePayloadStreamReader(writer);
+        ByteBuffer read = reader.readBytes();
+        assertTrue(read.isReadOnly());
+        assertEquals(ByteBuffer.wrap(new byte[] {2, 3, 4, 5}), read);
+
+        // arrays can be read as buffers too
+        assertEquals(ByteBuffer.wrap(new byte[] {6, 7}), reader.readBytes());
+        assertEquals(8, reader.readInt());
+    }
+
+}
@@ -23,6 +23,7 @@ import org.gwtproject.rpc.api.RemoteService.RemoteServiceAsync;
 import org.gwtproject.rpc.api.impl.AbstractEndpointImpl.EndpointImplConstructor;
 import org.gwtproject.rpc.api.impl.AbstractRemoteServiceImpl;
 import org.gwtproject.rpc.api.impl.ServiceDefTarget;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
 import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamReader;
 import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamWriter;
 import elemental2.dom.XMLHttpRequest;
@@ -40,6 +41,9 @@ public final class RemoteServiceFactory {
 		instance[0] = constructor.create(
 				serializer -> {
 					StringSerializationStreamWriter writer = new StringSerializationStreamWriter(serializer);
+					// the checksum is sent with each call and checked before the payload is read, so
+					// the server shares our type signatures and they can be sent as dictionary ids
+					writer.addFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY);
 					writer.prepareToWrite();
 					return writer;
 				},
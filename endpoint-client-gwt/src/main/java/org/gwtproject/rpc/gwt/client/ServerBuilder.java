@@ -31,8 +31,10 @@ import org.gwtproject.rpc.api.Server;
 import org.gwtproject.rpc.api.impl.AbstractEndpointImpl.EndpointImplConstructor;
 import org.gwtproject.rpc.api.impl.AbstractWebSocketServerImpl;
 import org.gwtproject.rpc.gwt.client.impl.ServerBuilderImpl;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamReader;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriter;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.StringDictionary;
 
 import java.nio.ByteBuffer;
 import java.util.function.Consumer;
@@ -124,17 +126,36 @@ public interface ServerBuilder<S extends Server<? super S, ?>> {
 
 			@Override
 			public E start() {
+				// the server may share strings between messages, so keep track of them for this connection
+				StringDictionary received = new StringDictionary();
 				E instance = constructor.create(
 						serializer -> {
 							ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(serializer);
+							// both ends only exchange messages once the checksum has been verified, so they share type ids.
+							// Most ints written are small ids and sizes, so send them as varints. The server reads large
+							// messages as they arrive, so send the strings first for it to decode while the rest follows
+							writer.addFlags(AbstractSerializationStream.FLAG_COMPACT_TYPE_IDS | AbstractSerializationStream.FLAG_VARINT_ENCODING
+									| AbstractSerializationStream.FLAG_STRINGS_FIRST);
 							writer.prepareToWrite();
 							return writer;
 						},
 						stream -> socket.send(Js.<Int8Array>uncheckedCast(TypedArrayHelper.unwrap(stream.getFullPayload()))),
 						(send, serializer) -> {
-							onmessage = message -> {
-								ByteBuffer bb = TypedArrayHelper.wrap(message);
-								send.accept(new ByteBufferSerializationStreamReader(serializer, bb));
+							onmessage = new Consumer<ArrayBuffer>() {
+								// each message is read completely before the next arrives, so the same reader
+								// can be reset for each
+								private ByteBufferSerializationStreamReader reader;
+
+								@Override
+								public void accept(ArrayBuffer message) {
+									ByteBuffer bb = TypedArrayHelper.wrap(message);
+									if (reader == null) {
+										reader = new ByteBufferSerializationStreamReader(serializer, bb, received);
+									} else {
+										reader.reset(bb);
+									}
+									send.accept(reader);
+								}
 							};
 						}
 				);
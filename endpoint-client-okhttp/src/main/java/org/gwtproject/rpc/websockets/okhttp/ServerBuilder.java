@@ -19,6 +19,16 @@ public interface ServerBuilder<S extends Server<? super S, ?>> {
      * @return
      */
     ServerBuilder<S> setUrl(String url);
+
+    /**
+     * Sets how many strings each new connection should remember, so that later messages sent to the
+     * server can refer to them instead of sending them again. Defaults to zero, which sends each
+     * message's strings in full.
+     *
+     * @param maxSize the number of strings to remember before starting again
+     * @return
+     */
+    ServerBuilder<S> setStringDictionarySize(int maxSize);
 //
 //    /**
 //     * Sets the path for the next server to be started. Defaults to the RemoteServiceRelativePath
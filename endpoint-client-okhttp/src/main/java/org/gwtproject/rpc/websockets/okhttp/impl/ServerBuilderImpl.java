@@ -2,8 +2,10 @@ package org.gwtproject.rpc.websockets.okhttp.impl;
 
 import okhttp3.*;
 import okio.ByteString;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamReader;
-import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriter;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriterPool;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.StringDictionary;
 import org.gwtproject.rpc.websockets.okhttp.ServerBuilder;
 import org.gwtproject.rpc.api.Client;
 import org.gwtproject.rpc.api.Server;
@@ -21,7 +23,7 @@ public class ServerBuilderImpl<S extends Server<? super S, ?>> implements Server
         private S endpoint;
         private Consumer<ByteBuffer> onMessage;
 
-        public ServerImpl(Request.Builder reqBuilder, AbstractEndpointImpl.EndpointImplConstructor<S> constructor, C client) {
+        public ServerImpl(Request.Builder reqBuilder, AbstractEndpointImpl.EndpointImplConstructor<S> constructor, C client, int stringDictionarySize) {
 
             WebSocketListener listener = new WebSocketListener() {
                 @Override
@@ -49,16 +51,46 @@ public class ServerBuilderImpl<S extends Server<? super S, ?>> implements Server
                 }
             };
 
+            // both ends only exchange messages once the checksum has been verified, so they share type ids.
+            // Most ints written are small ids and sizes, so send them as varints. The server reads large
+            // messages as they arrive, so send the strings first for it to decode while the rest follows
+            ByteBufferSerializationStreamWriterPool writers = new ByteBufferSerializationStreamWriterPool(
+                    AbstractSerializationStream.FLAG_COMPACT_TYPE_IDS | AbstractSerializationStream.FLAG_VARINT_ENCODING
+                            | AbstractSerializationStream.FLAG_STRINGS_FIRST
+            );
+            StringDictionary sent = stringDictionarySize > 0 ? new StringDictionary(stringDictionarySize) : null;
+            writers.setStringDictionary(sent);
+            // the server may share strings between messages even if we don't, so always keep track of them
+            StringDictionary received = new StringDictionary();
             endpoint = constructor.create(
-                    serializer -> {
-                        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(serializer);
-                        writer.prepareToWrite();
-                        return writer;
+                    writers::acquire,
+                    stream -> {
+                        if (sent == null) {
+                            websocket.send(ByteString.of(stream.getFullPayload()));
+                        } else {
+                            // the server must get messages in the same order that they used the dictionary
+                            synchronized (sent) {
+                                websocket.send(ByteString.of(stream.getFullPayload()));
+                            }
+                        }
+                        // ByteString copies the payload, so the writer can be reused
+                        writers.release(stream);
                     },
-                    stream -> websocket.send(ByteString.of(stream.getFullPayload())),
                     (send, serializer) -> {
-                        onMessage = buffer -> {
-                            send.accept(new ByteBufferSerializationStreamReader(serializer, buffer));
+                        onMessage = new Consumer<ByteBuffer>() {
+                            // okhttp delivers messages one at a time, and each is read completely before
+                            // the next arrives, so the same reader can be reset for each
+                            private ByteBufferSerializationStreamReader reader;
+
+                            @Override
+                            public void accept(ByteBuffer buffer) {
+                                if (reader == null) {
+                                    reader = new ByteBufferSerializationStreamReader(serializer, buffer, received);
+                                } else {
+                                    reader.reset(buffer);
+                                }
+                                send.accept(reader);
+                            }
                         };
                     }
             );
@@ -80,6 +112,7 @@ public class ServerBuilderImpl<S extends Server<? super S, ?>> implements Server
         }
     }
     private Request.Builder reqBuilder = new Request.Builder();
+    private int stringDictionarySize;
 //    private URL urlBuilder = new URL(DomGlobal.window.location.getHref());
 //    private ConnectionErrorHandler errorHandler;
 
@@ -104,6 +137,12 @@ public class ServerBuilderImpl<S extends Server<? super S, ?>> implements Server
         return this;
     }
 
+    @Override
+    public ServerBuilder<S> setStringDictionarySize(int maxSize) {
+        this.stringDictionarySize = maxSize;
+        return this;
+    }
+
 //    /**
 //     * @return the url
 //     */
@@ -136,7 +175,7 @@ public class ServerBuilderImpl<S extends Server<? super S, ?>> implements Server
     @Override
     public <C extends Client<C, ? extends S>> S start(C client) {
         //noinspection unchecked
-        return (S) new ServerImpl(reqBuilder, constructor, client).getEndpoint();
+        return (S) new ServerImpl(reqBuilder, constructor, client, stringDictionarySize).getEndpoint();
     }
 
 }
@@ -23,6 +23,7 @@ import org.gwtproject.rpc.api.Endpoint.NoRemoteEndpoint;
 import org.gwtproject.rpc.api.RemoteService.RemoteServiceAsync;
 import org.gwtproject.rpc.api.impl.AbstractEndpointImpl.EndpointImplConstructor;
 import com.google.gwt.user.client.rpc.SerializationException;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
 import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamReader;
 import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamWriter;
 import org.gwtproject.rpc.api.impl.AbstractNoRemoteImpl;
@@ -291,24 +292,45 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 	 *           exception (the exception will be the one thrown by the service)
 	 */
 	public String processCall(String payload) throws SerializationException {
+		return invoke(payload).toString();
+	}
+
+	/**
+	 * Does the work of {@link #processCall(String)}, but returns the writer
+	 * holding the response, so that it can be written out without first being
+	 * turned into a String.
+	 */
+	private StringSerializationStreamWriter invoke(String payload) throws SerializationException {
 		// First, check for possible XSRF situation
 		String checksum = checkPermutationStrongName();
 
 		// Construct the client instance
-		String[] holder = new String[1];
+		StringSerializationStreamWriter[] holder = new StringSerializationStreamWriter[1];
 		Runnable[] executeCall = new Runnable[1];
 		NoRemoteEndpoint<S> c = clientFactory.create(
 				ts -> {
 					StringSerializationStreamWriter writer = new StringSerializationStreamWriter(ts);
+					if (checksum != null) {
+						// the client's checksum matched, so both ends share the type signatures, and
+						// can use them as a dictionary instead of sending them as strings
+						writer.addFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY);
+					}
 					writer.prepareToWrite();
 					return writer;
 				},
 				writer -> {
-					holder[0] = writer.toString();
+					holder[0] = (StringSerializationStreamWriter) writer;
 				},
 				(serializationStreamReaderConsumer, typeSerializer) -> {
 					// this will be called during creation before it is time to set it up, so we stash it away for right afterward
-					executeCall[0] = () -> serializationStreamReaderConsumer.accept(new StringSerializationStreamReader(typeSerializer, payload));
+					executeCall[0] = () -> {
+						StringSerializationStreamReader reader = new StringSerializationStreamReader(typeSerializer, payload);
+						if (checksum == null && reader.hasFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY)) {
+							// without a checksum, nothing shows that the client's dictionary is the same as ours
+							throw new IllegalStateException("Payload uses the type signature dictionary, but no checksum was sent");
+						}
+						serializationStreamReaderConsumer.accept(reader);
+					};
 				}
 		);
 		c.setRemote(delegate);
@@ -349,6 +371,14 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 		//
 		onBeforeRequestDeserialized(requestPayload);
 
+		if (isResponseStreamed()) {
+			// Invoke the core dispatching logic, and write the result straight
+			// to the response.
+			//
+			writeResponse(request, response, invoke(requestPayload));
+			return;
+		}
+
 		// Invoke the core dispatching logic, which returns the serialized
 		// result.
 		//
@@ -470,6 +500,32 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 		writeResponse(getServletContext(), response,
 				responsePayload, gzipEncode);
 	}
+	/**
+	 * Writes the response straight from the writer into the servlet's output,
+	 * gzipping it on the way if it is large enough and the client accepts gzip.
+	 * Uncompressed responses get their exact Content-Length up front, gzipped
+	 * ones are sent chunked as their compressed size isn't known until written.
+	 */
+	private static void writeResponse(HttpServletRequest request,
+							   HttpServletResponse response, StringSerializationStreamWriter responseWriter) throws IOException {
+		// estimate the encoded size in the same way as for String responses
+		boolean gzipEncode = acceptsGzipEncoding(request)
+				&& (responseWriter.getLength() * 2) > UNCOMPRESSED_BYTE_SIZE_LIMIT;
+
+		response.setContentType(CONTENT_TYPE_APPLICATION_JSON_UTF8);
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setHeader(CONTENT_DISPOSITION, ATTACHMENT);
+		if (gzipEncode) {
+			setGzipEncodingHeader(response);
+			GZIPOutputStream gzipOutputStream = new GZIPOutputStream(response.getOutputStream(), BUFFER_SIZE);
+			Utf8ResponseEncoder.write(responseWriter, gzipOutputStream);
+			gzipOutputStream.finish();
+		} else {
+			response.setContentLength(Utf8ResponseEncoder.encodedLength(responseWriter));
+			Utf8ResponseEncoder.write(responseWriter, response.getOutputStream());
+		}
+	}
+
 	/**
 	 * Returns <code>true</code> if the {@link HttpServletRequest} accepts Gzip
 	 * encoding. This is done by checking that the accept-encoding header
@@ -578,6 +634,18 @@ public abstract class RemoteServiceServlet<S extends RemoteServiceAsync> extends
 	protected void onAfterResponseSerialized(String serializedResponse) {
 	}
 
+	/**
+	 * Override this method to return <code>true</code> to write each response
+	 * straight from the stream writer into the servlet's output, without first
+	 * building it up as a String. {@link #processCall(String)} and
+	 * {@link #onAfterResponseSerialized(String)} are then not called, so
+	 * subclasses that override either of those should leave this alone. The
+	 * default implementation returns <code>false</code>.
+	 */
+	protected boolean isResponseStreamed() {
+		return false;
+	}
+
 	/**
 	 * Override this method to examine the serialized version of the request
 	 * payload before it is deserialized into objects. The default implementation
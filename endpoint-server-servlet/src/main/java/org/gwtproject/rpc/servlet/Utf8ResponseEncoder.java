@@ -0,0 +1,110 @@
+/*
+ * #%L
+ * gwt-websockets-jsr356
+ * %%
+ * Copyright (C) 2011 - 2018 Vertispan LLC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.gwtproject.rpc.servlet;
+
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
+import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a response writer's payload as UTF-8 a chunk of chars at a time, so
+ * that the whole response is never held as a single String or byte[]. Kept
+ * out of the writer itself, as that is also compiled by GWT.
+ */
+final class Utf8ResponseEncoder implements Appendable {
+	private static final int CHUNK_SIZE = 8192;
+
+	/**
+	 * Returns the exact number of bytes that {@link #write} will produce, for
+	 * example to set a Content-Length before streaming the payload out.
+	 */
+	static int encodedLength(StringSerializationStreamWriter writer) throws IOException {
+		Utf8ResponseEncoder encoder = new Utf8ResponseEncoder(null);
+		writer.writeTo(encoder);
+		encoder.flush();
+		return encoder.encodedLength;
+	}
+
+	/**
+	 * Writes the writer's complete payload to the stream as UTF-8. The stream
+	 * is not flushed or closed.
+	 */
+	static void write(StringSerializationStreamWriter writer, OutputStream out) throws IOException {
+		Utf8ResponseEncoder encoder = new Utf8ResponseEncoder(out);
+		writer.writeTo(encoder);
+		encoder.flush();
+	}
+
+	/**
+	 * The destination for encoded chunks, or null to only count their bytes.
+	 */
+	private final OutputStream out;
+	private final StringBuilder chunk = new StringBuilder(CHUNK_SIZE + 16);
+	private int encodedLength;
+
+	private Utf8ResponseEncoder(OutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public Appendable append(CharSequence csq) throws IOException {
+		return append(csq, 0, csq.length());
+	}
+
+	@Override
+	public Appendable append(CharSequence csq, int start, int end) throws IOException {
+		while (start < end) {
+			// always take at least one char, in case the chunk is full but waiting on a low surrogate
+			int count = Math.min(end - start, Math.max(1, CHUNK_SIZE - chunk.length()));
+			chunk.append(csq, start, start + count);
+			start += count;
+			maybeFlush();
+		}
+		return this;
+	}
+
+	@Override
+	public Appendable append(char c) throws IOException {
+		chunk.append(c);
+		maybeFlush();
+		return this;
+	}
+
+	private void maybeFlush() throws IOException {
+		// don't split a surrogate pair across two chunks, or each half would be encoded on its own
+		if (chunk.length() >= CHUNK_SIZE && !Character.isHighSurrogate(chunk.charAt(chunk.length() - 1))) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		if (chunk.length() == 0) {
+			return;
+		}
+		if (out == null) {
+			encodedLength += AbstractSerializationStream.utf8Length(chunk);
+		} else {
+			out.write(chunk.toString().getBytes(RemoteServiceServlet.CHARSET_UTF8));
+		}
+		chunk.setLength(0);
+	}
+}
@@ -19,8 +19,13 @@
  */
 package org.gwtproject.rpc.servlet.websocket;
 
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.BufferAllocator;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamReader;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriter;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriterPool;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.MessageAssembler;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.StringDictionary;
 import org.gwtproject.rpc.api.Client;
 import org.gwtproject.rpc.api.Server;
 import org.gwtproject.rpc.api.Server.Connection;
@@ -32,6 +37,7 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 public class RpcEndpoint<S extends Server<S, C>, C extends Client<C, S>> {
@@ -39,6 +45,10 @@ public class RpcEndpoint<S extends Server<S, C>, C extends Client<C, S>> {
 	private final EndpointImplConstructor<C> clientConstructor;
 
 	private Consumer<ByteBuffer> handleMessage;
+	private BiConsumer<ByteBuffer, Boolean> handleFragment;
+
+	// joins the parts of each binary message, reusing its buffer for the next
+	private MessageAssembler assembler;
 
 	public RpcEndpoint(S server, EndpointImplConstructor<C> clientConstructor) {
 		this.server = server;
@@ -53,16 +63,43 @@ public class RpcEndpoint<S extends Server<S, C>, C extends Client<C, S>> {
 
 	@OnOpen
 	public void onOpen(Session session) {
+		assembler = new MessageAssembler(BufferAllocator.HEAP, getMaxMessageSize());
+		// both ends only exchange messages once the checksum has been verified, so they share type ids.
+		// Most ints written are small ids and sizes, so send them as varints
+		ByteBufferSerializationStreamWriterPool writers = new ByteBufferSerializationStreamWriterPool(
+				AbstractSerializationStream.FLAG_COMPACT_TYPE_IDS | AbstractSerializationStream.FLAG_VARINT_ENCODING
+		);
+		StringDictionary sent = createStringDictionary();
+		writers.setStringDictionary(sent);
+		// the client may share strings between messages even if we don't, so always keep track of them
+		StringDictionary received = new StringDictionary();
 		C instance = clientConstructor.create(
-				serializer -> {
-					ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(serializer);
-					writer.prepareToWrite();
-					return writer;
+				writers::acquire,
+				writer -> {
+					if (sent == null) {
+						send(session, writers, writer);
+						return;
+					}
+					// the client must get messages in the same order that they used the dictionary
+					synchronized (sent) {
+						send(session, writers, writer);
+					}
 				},
-				writer -> session.getAsyncRemote().sendBinary(writer.getFullPayload()),
 				(onMessage, serializer) -> {
-					// using this to delegate to OnMessage, not working otherwise
-					handleMessage = message -> onMessage.accept(new ByteBufferSerializationStreamReader(serializer, message));
+					// messages on a session are delivered one at a time, and read completely before the
+					// next arrives, so the same reader can be used for each. Using these to delegate to
+					// OnMessage, not working otherwise
+					ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(serializer, received, assembler);
+					handleMessage = message -> {
+						reader.reset(message);
+						onMessage.accept(reader);
+					};
+					handleFragment = (partialMessage, last) -> {
+						// strings sent before the payload are decoded as their parts arrive
+						if (reader.append(partialMessage, last)) {
+							onMessage.accept(reader);
+						}
+					};
 				}
 		);
 		List<String> hash = session.getRequestParameterMap().get("checksum");
@@ -91,9 +128,36 @@ public class RpcEndpoint<S extends Server<S, C>, C extends Client<C, S>> {
 		server.onOpen(new Jsr356Connection(session), server.getClient());
 
 		// Configure defaults present in some servlet containers to avoid some confusing limits. Subclasses
-		// can override this method to control those defaults on their own.
+		// can override this method to control those defaults on their own. Binary messages larger than the
+		// container's buffer are delivered in parts and joined by the assembler, so the container doesn't
+		// need to be able to buffer an entire message.
 		session.setMaxIdleTimeout(0);
-		session.setMaxBinaryMessageBufferSize(Integer.MAX_VALUE);
+	}
+
+	private static void send(Session session, ByteBufferSerializationStreamWriterPool writers, ByteBufferSerializationStreamWriter writer) {
+		session.getAsyncRemote().sendBinary(writer.getFullPayload(), result -> {
+			// the payload may share the writer's buffer, so only release once sent
+			writers.release(writer);
+		});
+	}
+
+	/**
+	 * Returns the dictionary to share strings between the messages sent on a new connection, or
+	 * null to send each message's strings in full. Defaults to null, subclasses can return a new
+	 * dictionary for each connection to send repeated strings such as names or ids only once, at
+	 * the cost of keeping up to the dictionary's maximum size in memory on both ends.
+	 */
+	protected StringDictionary createStringDictionary() {
+		return null;
+	}
+
+	/**
+	 * Returns the largest binary message to accept from the client, in bytes. Defaults to
+	 * {@link MessageAssembler#DEFAULT_MAX_MESSAGE_SIZE}, subclasses can override this to accept
+	 * larger messages, at the cost of letting each connection hold a buffer that large.
+	 */
+	protected int getMaxMessageSize() {
+		return MessageAssembler.DEFAULT_MAX_MESSAGE_SIZE;
 	}
 
 	@OnMessage
@@ -104,12 +168,20 @@ public class RpcEndpoint<S extends Server<S, C>, C extends Client<C, S>> {
 	}
 
 	@OnMessage
+	public void onMessage(ByteBuffer partialMessage, boolean last) {
+		handleFragment.accept(partialMessage, last);
+	}
+
+	/**
+	 * Handles a complete binary message, once all of its parts have arrived.
+	 */
 	public void onMessage(ByteBuffer message) {
 		handleMessage.accept(message);
 	}
 	@OnClose
 	public void onClose(Session session) {
 		assert server.getClient() != null;
+		assembler.release();
 		server.onClose(new Jsr356Connection(session), server.getClient());
 	}
 
@@ -1,9 +1,16 @@
 package org.gwtproject.rpc.vertx.server.websocket;
 
+import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import io.vertx.core.buffer.Buffer;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamReader;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.BufferAllocator;
 import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriter;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriterPool;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.MessageAssembler;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.PooledBufferAllocator;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.StringDictionary;
 import org.gwtproject.rpc.api.Client;
 import org.gwtproject.rpc.api.Server;
 
@@ -12,7 +19,6 @@ import io.vertx.core.http.ServerWebSocket;
 import org.gwtproject.rpc.api.impl.AbstractEndpointImpl;
 import org.gwtproject.rpc.api.impl.AbstractWebSocketClientImpl;
 
-import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
@@ -21,34 +27,83 @@ public class RpcWebSocketHandler<S extends Server<S, C>, C extends Client<C, S>>
     private final AbstractEndpointImpl.EndpointImplConstructor<C> clientConstructor;
     private final Supplier<S> serverFactory;
 
+    // direct buffers can be handed to netty without being copied first, keep them around since they
+    // are expensive to allocate
+    private final BufferAllocator allocator = new PooledBufferAllocator(
+            BufferAllocator.DIRECT,
+            ByteBufferSerializationStreamWriterPool.DEFAULT_MAX_RETAINED_CAPACITY,
+            64
+    );
+
+    private int stringDictionarySize;
+
+    private int maxMessageSize = MessageAssembler.DEFAULT_MAX_MESSAGE_SIZE;
+
     public RpcWebSocketHandler(AbstractEndpointImpl.EndpointImplConstructor<C> clientConstructor, Supplier<S> serverFactory) {
         this.clientConstructor = clientConstructor;
         this.serverFactory = serverFactory;
     }
 
+    /**
+     * Sets how many strings each new connection should remember, so that later messages sent to the
+     * client can refer to them instead of sending them again. Defaults to zero, which sends each
+     * message's strings in full.
+     */
+    public RpcWebSocketHandler<S, C> setStringDictionarySize(int stringDictionarySize) {
+        this.stringDictionarySize = stringDictionarySize;
+        return this;
+    }
+
+    /**
+     * Sets the largest binary message to accept from each client, in bytes. Defaults to
+     * {@link MessageAssembler#DEFAULT_MAX_MESSAGE_SIZE}.
+     */
+    public RpcWebSocketHandler<S, C> setMaxMessageSize(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+        return this;
+    }
+
     @Override
     public void handle(ServerWebSocket incomingWebsocket) {
         // assume that we've been set up correctly to only handle our own events
         // this is a new socket, so could allocate a new server instance to talk to?
+        // both ends only exchange messages once the checksum has been verified, so they share type ids.
+        // Most ints written are small ids and sizes, so send them as varints
+        ByteBufferSerializationStreamWriterPool writers = new ByteBufferSerializationStreamWriterPool(
+                AbstractSerializationStream.FLAG_COMPACT_TYPE_IDS | AbstractSerializationStream.FLAG_VARINT_ENCODING,
+                allocator
+        );
+        MessageAssembler assembler = new MessageAssembler(allocator, maxMessageSize);
+        StringDictionary sent = stringDictionarySize > 0 ? new StringDictionary(stringDictionarySize) : null;
+        writers.setStringDictionary(sent);
+        // the client may share strings between messages even if we don't, so always keep track of them
+        StringDictionary received = new StringDictionary();
         C instance = clientConstructor.create(
-                typeSerializer -> {
-                    ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(typeSerializer);
-                    writer.prepareToWrite();
-                    return writer;
-                },
+                writers::acquire,
                 writer -> {
-                    // TODO prevent this from copying the whole payload
-                    ByteBuffer fullPayload = writer.getFullPayload();
-                    Buffer buffer = Buffer.buffer(fullPayload.array())
-                            .slice(fullPayload.position(), fullPayload.limit());
-
-                    incomingWebsocket.writeFinalBinaryFrame(buffer);
+                    if (sent == null) {
+                        send(incomingWebsocket, writers, writer);
+                        return;
+                    }
+                    // the client must get frames in the same order that they used the dictionary
+                    synchronized (sent) {
+                        send(incomingWebsocket, writers, writer);
+                    }
                 },
                 (onMessage, serializer) -> {
+                    // frames are handled one at a time on the socket's event loop, and read completely
+                    // before the next arrives, so the same reader can be used for each
+                    ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(serializer, received, assembler);
                     incomingWebsocket.frameHandler(frame -> {
-                        // TODO prevent this from copying the whole payload
-                        ByteBuffer byteBuffer = frame.binaryData().getByteBuf().nioBuffer();
-                        onMessage.accept(new ByteBufferSerializationStreamReader(serializer, byteBuffer));
+                        if (frame.isText()) {
+                            incomingWebsocket.close((short) 1003, "This endpoint does not accept string messages, use binary messages instead.");
+                            return;
+                        }
+                        // a message may be split into continuation frames, which are joined before reading,
+                        // and any strings sent before the payload are decoded as the frames arrive
+                        if (reader.append(frame.binaryData().getByteBuf().nioBuffer(), frame.isFinal())) {
+                            onMessage.accept(reader);
+                        }
                     });
                 }
         );
@@ -76,11 +131,21 @@ public class RpcWebSocketHandler<S extends Server<S, C>, C extends Client<C, S>>
         VertxConnection connection = new VertxConnection(incomingWebsocket);
 
         incomingWebsocket.exceptionHandler(server::onError);
-        incomingWebsocket.closeHandler(c -> server.onClose(connection, instance));
+        incomingWebsocket.closeHandler(c -> {
+            assembler.release();
+            server.onClose(connection, instance);
+        });
 
         server.onOpen(connection, instance);
     }
 
+    private static void send(ServerWebSocket websocket, ByteBufferSerializationStreamWriterPool writers, ByteBufferSerializationStreamWriter writer) {
+        // wrap rather than copy the payload, and only reuse the writer once it has been written
+        Buffer buffer = Buffer.buffer(Unpooled.wrappedBuffer(writer.getFullPayload()));
+
+        websocket.writeFinalBinaryFrame(buffer, result -> writers.release(writer));
+    }
+
     public static class VertxConnection implements Server.Connection {
         private final ServerWebSocket webSocket;
         private final ConcurrentHashMap<String, Object> map = new ConcurrentHashMap<>();
@@ -2,6 +2,7 @@ package org.gwtproject.rpc.vertx.server.xhr;
 
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpServerRequest;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
 import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamReader;
 import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamWriter;
 import org.gwtproject.rpc.api.Endpoint;
@@ -52,6 +53,9 @@ public class RpcXhrHandler<S extends RemoteService.RemoteServiceAsync> implement
         Endpoint.NoRemoteEndpoint<S> c = clientFactory.create(
                 typeSerializer -> {
                     StringSerializationStreamWriter writer = new StringSerializationStreamWriter(typeSerializer);
+                    // calls are only made once the client's checksum matched below, so both ends
+                    // share the type signatures and can use them as a dictionary
+                    writer.addFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY);
                     writer.prepareToWrite();
                     return writer;
                 },
@@ -21,6 +21,11 @@ package org.gwtproject.rpc.serialization.api;
  */
 public interface SerializationStreamReader extends com.google.gwt.user.client.rpc.SerializationStreamReader {
 
+    /**
+     * Returned by {@link #readDeclaredObject()} when a new object follows in the stream.
+     */
+    Object NEW_OBJECT = new Object();
+
     /**
      * Reads the next piece of data in the stream as if it were a boolean.
      * @return true or false
@@ -79,6 +84,28 @@ public interface SerializationStreamReader extends com.google.gwt.user.client.rp
      */
     Object readObject() throws com.google.gwt.user.client.rpc.SerializationException;
 
+    /**
+     * Reads an object written with {@link SerializationStreamWriter#writeDeclaredObject(Object, boolean)}.
+     * If the object was null or has already been read, it is returned. Otherwise this returns
+     * {@link #NEW_OBJECT}, and the caller must create the object, pass it to
+     * {@link #rememberDeclaredObject(Object, boolean)}, and then read its fields.
+     */
+    default Object readDeclaredObject() throws com.google.gwt.user.client.rpc.SerializationException {
+        return readObject();
+    }
+
+    /**
+     * Records an object created after {@link #readDeclaredObject()} returned {@link #NEW_OBJECT},
+     * so that later references to it can be resolved. The object must be created without reading
+     * from the stream, and this must be called before its fields are read.
+     *
+     * @param instance the new object
+     * @param tracked the same value that the writer passed to
+     *                {@link SerializationStreamWriter#writeDeclaredObject(Object, boolean)}
+     */
+    default void rememberDeclaredObject(Object instance, boolean tracked) {
+    }
+
     /**
      * Reads the next piece of data in the stream as if it were a short.
      * @return the next short in the stream
@@ -130,4 +157,101 @@ public interface SerializationStreamReader extends com.google.gwt.user.client.rp
      */
     void claimItems(int slots) throws SerializationException;
 
-}
+    /**
+     * Reads the next {@code length} pieces of data in the stream as if they were ints, into the
+     * array starting at {@code offset}. Streams may override this to read them all at once.
+     * @param values the array to read into
+     * @param offset the index to read the first value into
+     * @param length the number of values to read
+     * @throws SerializationException if not enough data remains, or the data is not formatted correctly
+     */
+    default void readInts(int[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readInt();
+        }
+    }
+
+    /**
+     * Reads the next {@code length} pieces of data in the stream as if they were longs, into the
+     * array starting at {@code offset}. Streams may override this to read them all at once.
+     * @param values the array to read into
+     * @param offset the index to read the first value into
+     * @param length the number of values to read
+     * @throws SerializationException if not enough data remains, or the data is not formatted correctly
+     */
+    default void readLongs(long[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readLong();
+        }
+    }
+
+    /**
+     * Reads the next {@code length} pieces of data in the stream as if they were doubles, into the
+     * array starting at {@code offset}. Streams may override this to read them all at once.
+     * @param values the array to read into
+     * @param offset the index to read the first value into
+     * @param length the number of values to read
+     * @throws SerializationException if not enough data remains, or the data is not formatted correctly
+     */
+    default void readDoubles(double[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readDouble();
+        }
+    }
+
+    /**
+     * Reads the next {@code length} pieces of data in the stream as if they were floats, into the
+     * array starting at {@code offset}. Streams may override this to read them all at once.
+     * @param values the array to read into
+     * @param offset the index to read the first value into
+     * @param length the number of values to read
+     * @throws SerializationException if not enough data remains, or the data is not formatted correctly
+     */
+    default void readFloats(float[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readFloat();
+        }
+    }
+
+    /**
+     * Reads the next {@code length} pieces of data in the stream as if they were shorts, into the
+     * array starting at {@code offset}. Streams may override this to read them all at once.
+     * @param values the array to read into
+     * @param offset the index to read the first value into
+     * @param length the number of values to read
+     * @throws SerializationException if not enough data remains, or the data is not formatted correctly
+     */
+    default void readShorts(short[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readShort();
+        }
+    }
+
+    /**
+     * Reads the next {@code length} pieces of data in the stream as if they were bytes, into the
+     * array starting at {@code offset}. Streams may override this to read them all at once.
+     * @param values the array to read into
+     * @param offset the index to read the first value into
+     * @param length the number of values to read
+     * @throws SerializationException if not enough data remains, or the data is not formatted correctly
+     */
+    default void readBytes(byte[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readByte();
+        }
+    }
+
+    /**
+     * Reads the next {@code length} pieces of data in the stream as if they were chars, into the
+     * array starting at {@code offset}. Streams may override this to read them all at once.
+     * @param values the array to read into
+     * @param offset the index to read the first value into
+     * @param length the number of values to read
+     * @throws SerializationException if not enough data remains, or the data is not formatted correctly
+     */
+    default void readChars(char[] values, int offset, int length) throws SerializationException {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            values[i] = readChar();
+        }
+    }
+}
\ No newline at end of file
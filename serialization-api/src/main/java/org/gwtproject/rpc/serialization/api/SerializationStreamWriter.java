@@ -65,6 +65,24 @@ public interface SerializationStreamWriter extends com.google.gwt.user.client.rp
      */
     void writeObject(Object value) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException;
 
+    /**
+     * Starts writing an object whose class is known to be exactly the declared type of the field
+     * it is written from, such as a final class. Instead of the object's type, only a tag saying
+     * that a new object follows is written, and the caller then writes the object's fields with
+     * that type's field serializer, skipping the type lookup and dispatch of
+     * {@link #writeObject(Object)}. Null and objects that were already written are handled
+     * entirely by this method. Must be read with {@link SerializationStreamReader#readDeclaredObject()}.
+     *
+     * @param value the object to write
+     * @param tracked false if the object's type is never referred back to, which must match the
+     *                reader's call to {@link SerializationStreamReader#rememberDeclaredObject(Object, boolean)}
+     * @return true if the caller must now write the object's fields
+     */
+    default boolean writeDeclaredObject(Object value, boolean tracked) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+        writeObject(value);
+        return false;
+    }
+
     /**
      *
      * @param value
@@ -78,5 +96,126 @@ public interface SerializationStreamWriter extends com.google.gwt.user.client.rp
      * @throws SerializationException
      */
     void writeString(String value) throws SerializationException;
-}
 
+    /**
+     * Hints that at least the given number of bytes are about to be written, such as before the
+     * contents of a primitive array, letting a binary stream grow its buffer once up front rather
+     * than as each value is written. Streams which don't write to a buffer can ignore this.
+     *
+     * @param bytes the number of bytes about to be written
+     */
+    default void reserve(int bytes) {
+    }
+
+    /**
+     * Writes {@code length} {@code int}s from the array, starting at {@code offset}, as if each was
+     * passed to {@link #writeInt(int)}. Streams may override this to write them all at once.
+     *
+     * @param values the array to write from
+     * @param offset the index of the first value to write
+     * @param length the number of values to write
+     * @throws SerializationException
+     */
+    default void writeInts(int[] values, int offset, int length) throws SerializationException {
+        reserve(4 * length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeInt(values[i]);
+        }
+    }
+
+    /**
+     * Writes {@code length} {@code long}s from the array, starting at {@code offset}, as if each was
+     * passed to {@link #writeLong(long)}. Streams may override this to write them all at once.
+     *
+     * @param values the array to write from
+     * @param offset the index of the first value to write
+     * @param length the number of values to write
+     * @throws SerializationException
+     */
+    default void writeLongs(long[] values, int offset, int length) throws SerializationException {
+        reserve(8 * length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeLong(values[i]);
+        }
+    }
+
+    /**
+     * Writes {@code length} {@code double}s from the array, starting at {@code offset}, as if each was
+     * passed to {@link #writeDouble(double)}. Streams may override this to write them all at once.
+     *
+     * @param values the array to write from
+     * @param offset the index of the first value to write
+     * @param length the number of values to write
+     * @throws SerializationException
+     */
+    default void writeDoubles(double[] values, int offset, int length) throws SerializationException {
+        reserve(8 * length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeDouble(values[i]);
+        }
+    }
+
+    /**
+     * Writes {@code length} {@code float}s from the array, starting at {@code offset}, as if each was
+     * passed to {@link #writeFloat(float)}. Streams may override this to write them all at once.
+     *
+     * @param values the array to write from
+     * @param offset the index of the first value to write
+     * @param length the number of values to write
+     * @throws SerializationException
+     */
+    default void writeFloats(float[] values, int offset, int length) throws SerializationException {
+        reserve(4 * length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeFloat(values[i]);
+        }
+    }
+
+    /**
+     * Writes {@code length} {@code short}s from the array, starting at {@code offset}, as if each was
+     * passed to {@link #writeShort(short)}. Streams may override this to write them all at once.
+     *
+     * @param values the array to write from
+     * @param offset the index of the first value to write
+     * @param length the number of values to write
+     * @throws SerializationException
+     */
+    default void writeShorts(short[] values, int offset, int length) throws SerializationException {
+        reserve(2 * length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeShort(values[i]);
+        }
+    }
+
+    /**
+     * Writes {@code length} {@code byte}s from the array, starting at {@code offset}, as if each was
+     * passed to {@link #writeByte(byte)}. Streams may override this to write them all at once.
+     *
+     * @param values the array to write from
+     * @param offset the index of the first value to write
+     * @param length the number of values to write
+     * @throws SerializationException
+     */
+    default void writeBytes(byte[] values, int offset, int length) throws SerializationException {
+        reserve(length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeByte(values[i]);
+        }
+    }
+
+    /**
+     * Writes {@code length} {@code char}s from the array, starting at {@code offset}, as if each was
+     * passed to {@link #writeChar(char)}. Streams may override this to write them all at once.
+     *
+     * @param values the array to write from
+     * @param offset the index of the first value to write
+     * @param length the number of values to write
+     * @throws SerializationException
+     */
+    default void writeChars(char[] values, int offset, int length) throws SerializationException {
+        reserve(2 * length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            writeChar(values[i]);
+        }
+    }
+}
\ No newline at end of file
@@ -3,6 +3,12 @@ package org.gwtproject.rpc.serialization.api;
 /**
  * Contract for any class that can serialize and restore class into a
  * serialization stream.
+ *
+ * Implementations may also assign each type they can instantiate a dense integer id, allowing
+ * streams to dispatch without looking up the type signature each time an object is read or
+ * written. The id based methods default to being unsupported, streams must check that
+ * {@link #getTypeId(Class)} or {@link #getTypeId(String)} returned a non-negative value before
+ * using them.
  */
 public interface TypeSerializer {
 
@@ -35,4 +41,69 @@ public interface TypeSerializer {
      */
     void serialize(SerializationStreamWriter stream, Object instance,
                    String typeSignature) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException;
-}
\ No newline at end of file
+
+    /**
+     * Returns the type id for the given class, or -1 if this serializer doesn't assign ids, or
+     * doesn't know about this type. Streams pass the class of the object being written, which for
+     * an enum constant with a body is a subclass of the enum, and should get the enum's id.
+     */
+    default int getTypeId(Class<?> clazz) {
+        return -1;
+    }
+
+    /**
+     * Returns the type id for the given type signature, or -1 if this serializer doesn't assign
+     * ids, or doesn't know about this type.
+     */
+    default int getTypeId(String typeSignature) {
+        return -1;
+    }
+
+    /**
+     * Returns the number of type ids assigned by this serializer, one more than the highest id.
+     */
+    default int getTypeCount() {
+        return 0;
+    }
+
+    /**
+     * Returns the type signature for a type id previously returned from this serializer.
+     */
+    default String getTypeSignature(int typeId) {
+        throw new IllegalArgumentException("Type ids are not supported by this serializer: " + typeId);
+    }
+
+    /**
+     * Returns false if instances of the given type never need to be written as back-references,
+     * as the type can't be part of a cycle, and sharing an instance can't be observed other than
+     * by identity. Streams skip tracking such objects on both ends.
+     */
+    default boolean isReferenceTracked(int typeId) {
+        return true;
+    }
+
+    /**
+     * Restore an instantiated object from the serialized stream, using a previously
+     * obtained type id.
+     */
+    default void deserialize(SerializationStreamReader stream, Object instance, int typeId)
+            throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+        deserialize(stream, instance, getTypeSignature(typeId));
+    }
+
+    /**
+     * Instantiate an object from the serialized stream, using a previously obtained type id.
+     */
+    default Object instantiate(SerializationStreamReader stream, int typeId)
+            throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+        return instantiate(stream, getTypeSignature(typeId));
+    }
+
+    /**
+     * Save an instance into the serialization stream, using a previously obtained type id.
+     */
+    default void serialize(SerializationStreamWriter stream, Object instance, int typeId)
+            throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+        serialize(stream, instance, getTypeSignature(typeId));
+    }
+}
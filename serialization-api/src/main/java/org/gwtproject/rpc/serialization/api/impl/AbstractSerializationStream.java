@@ -47,10 +47,62 @@ public abstract class AbstractSerializationStream {
      */
     public static final int FLAG_RPC_TOKEN_INCLUDED = 0x2;
 
+    /**
+     * Indicates that objects are written with the type ids assigned by the type serializer rather
+     * than with their type signatures, so no type names end up in the string table. Both ends of
+     * the stream must use type serializers with the same checksum, as this guarantees that they
+     * agree on the ids.
+     */
+    public static final int FLAG_COMPACT_TYPE_IDS = 0x4;
+
+    /**
+     * Indicates that ints, longs, shorts and chars are written as variable length values, so that
+     * small numbers take fewer bytes. Only binary streams are affected by this flag.
+     */
+    public static final int FLAG_VARINT_ENCODING = 0x8;
+
+    /**
+     * Indicates that the type signatures known to both ends' type serializer are used as a shared
+     * dictionary of strings. Those strings are written as their type id plus one, and never appear
+     * in the string table, whose indices then start after the last type id.
+     */
+    public static final int FLAG_STRING_DICTIONARY = 0x10;
+
+    /**
+     * Indicates that the string table refers to strings sent in earlier messages on the same
+     * connection, so the payload can only be read by a reader that has seen every earlier message.
+     * Only binary streams are affected by this flag.
+     */
+    public static final int FLAG_SESSION_STRINGS = 0x20;
+
+    /**
+     * Indicates that the string table is written between the header and the payload rather than
+     * after the payload, so that a reader can decode the strings while the rest of a large message
+     * is still arriving. Only binary streams are affected by this flag.
+     */
+    public static final int FLAG_STRINGS_FIRST = 0x40;
+
     /**
      * Bit mask representing all valid flags.
      */
-    public static final int VALID_FLAGS_MASK = 0x3;
+    public static final int VALID_FLAGS_MASK = 0x7f;
+
+    /**
+     * The token written in place of an object's type by
+     * {@link org.gwtproject.rpc.serialization.api.SerializationStreamWriter#writeDeclaredObject(Object, boolean)},
+     * as the reader already knows which type to expect.
+     */
+    protected static final int DECLARED_OBJECT_TOKEN = 1;
+
+    private static final char[] BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789$_".toCharArray();
+
+    // the value of each ascii char as a base-64 digit, the inverse of BASE64_DIGITS
+    private static final byte[] BASE64_VALUES = new byte[128];
+    static {
+        for (int i = 0; i < BASE64_DIGITS.length; i++) {
+            BASE64_VALUES[BASE64_DIGITS[i]] = (byte) i;
+        }
+    }
 
     private int flags = DEFAULT_FLAGS;
     private int version = SERIALIZATION_STREAM_VERSION;
@@ -89,18 +141,52 @@ public abstract class AbstractSerializationStream {
         this.version = version;
     }
 
+    /**
+     * Returns the number of bytes needed to UTF-8 encode the chars. A surrogate pair takes four
+     * bytes, and an unpaired surrogate one, as it is replaced by '?' the same way that
+     * String.getBytes does. Every stream that sends UTF-8 sizes its output with this, so that
+     * lengths written ahead of the bytes always agree.
+     */
+    public static int utf8Length(CharSequence chars) {
+        int length = chars.length();
+        int encodedLength = length;
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                encodedLength++;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                // four bytes for the pair
+                encodedLength += 2;
+                i++;
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                // unpaired surrogates are replaced by a single byte, everything else is three bytes
+                encodedLength += 2;
+            }
+        }
+        return encodedLength;
+    }
+
     /**
      * Parse a string containing a base-64 encoded version of a long value.
      *
      * Keep this synchronized with the version in Base64Utils.
      */
     protected static long longFromBase64(String value) {
-        int pos = 0;
-        long longVal = base64Value(value.charAt(pos++));
-        int len = value.length();
-        while (pos < len) {
+        return longFromBase64(value, 0, value.length());
+    }
+
+    /**
+     * Parse the characters from start (inclusive) to end (exclusive) as a base-64 encoded long,
+     * so that readers can decode a value in place without first copying it out to a String.
+     */
+    protected static long longFromBase64(CharSequence value, int start, int end) {
+        long longVal = 0;
+        for (int pos = start; pos < end; pos++) {
             longVal <<= 6;
-            longVal |= base64Value(value.charAt(pos++));
+            longVal |= base64Value(value.charAt(pos));
         }
         return longVal;
     }
@@ -112,11 +198,20 @@ public abstract class AbstractSerializationStream {
      * Keep this synchronized with the version in Base64Utils.
      */
     protected static String longToBase64(long value) {
+        StringBuilder sb = new StringBuilder(11);
+        longToBase64(value, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Append the base-64 encoded version of the given long value to the buffer,
+     * in the same format as {@link #longToBase64(long)}.
+     */
+    protected static void longToBase64(long value, StringBuilder sb) {
         // Convert to ints early to avoid need for long ops
         int low = (int) (value & 0xffffffff);
         int high = (int) (value >> 32);
 
-        StringBuilder sb = new StringBuilder();
         boolean haveNonZero = base64Append(sb, (high >> 28) & 0xf, false);
         haveNonZero = base64Append(sb, (high >> 22) & 0x3f, haveNonZero);
         haveNonZero = base64Append(sb, (high >> 16) & 0x3f, haveNonZero);
@@ -129,8 +224,6 @@ public abstract class AbstractSerializationStream {
         haveNonZero = base64Append(sb, (low >> 12) & 0x3f, haveNonZero);
         base64Append(sb, (low >> 6) & 0x3f, haveNonZero);
         base64Append(sb, low & 0x3f, true);
-
-        return sb.toString();
     }
 
     private static boolean base64Append(StringBuilder sb, int digit, boolean haveNonZero) {
@@ -138,40 +231,14 @@ public abstract class AbstractSerializationStream {
             haveNonZero = true;
         }
         if (haveNonZero) {
-            int c;
-            if (digit < 26) {
-                c = 'A' + digit;
-            } else if (digit < 52) {
-                c = 'a' + digit - 26;
-            } else if (digit < 62) {
-                c = '0' + digit - 52;
-            } else if (digit == 62) {
-                c = '$';
-            } else {
-                c = '_';
-            }
-            sb.append((char) c);
+            sb.append(BASE64_DIGITS[digit]);
         }
         return haveNonZero;
     }
 
-    // Assume digit is one of [A-Za-z0-9$_]
+    // Assume digit is one of [A-Za-z0-9$_], anything else is read as zero
     private static int base64Value(char digit) {
-        if (digit >= 'A' && digit <= 'Z') {
-            return digit - 'A';
-        }
-        // No need to check digit <= 'z'
-        if (digit >= 'a') {
-            return digit - 'a' + 26;
-        }
-        if (digit >= '0' && digit <= '9') {
-            return digit - '0' + 52;
-        }
-        if (digit == '$') {
-            return 62;
-        }
-        // digit == '_'
-        return 63;
+        return digit < BASE64_VALUES.length ? BASE64_VALUES[digit] : 0;
     }
 
 }
\ No newline at end of file
@@ -3,7 +3,7 @@ package org.gwtproject.rpc.serialization.api.impl;
 import org.gwtproject.rpc.serialization.api.SerializationException;
 import org.gwtproject.rpc.serialization.api.SerializationStreamReader;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Base class for the client and server serialization streams. This class
@@ -66,46 +66,117 @@ public abstract class AbstractSerializationStreamReader extends
         return result;
     }
 
-    private ArrayList<Object> seenArray = new ArrayList<Object>();
-
-    //TODO set some standards on all wrapped input like version and int?
-    //TODO allow reusing/rereading a stream (as in "seenArray.clear()")?
-//    /**
-//     * Prepare to read the stream.
-//     *
-//     * @param encoded unused true if the stream is encoded
-//     */
-//    public void prepareToRead(String encoded) throws SerializationException {
-//        seenArray.clear();
-//
-//        // Read the stream version number
-//        //
-//        setVersion(readInt());
-//
-//        // Read the flags from the stream
-//        //
-//        setFlags(readInt());
-//    }
+    // decoded objects, in the order their indices were reserved
+    private Object[] seenArray = new Object[16];
+    private int seenCount;
+
+    // marks a signature that was looked up but isn't a known type, as zero means "not yet resolved"
+    private static final int UNKNOWN_TYPE_ID = Integer.MIN_VALUE;
+
+    // type ids resolved so far, indexed by the string table index of their signature, offset by one so
+    // that zero means "not yet resolved"
+    private int[] typeIdsByStringIndex = new int[0];
+
+    /**
+     * Forgets the objects and type ids seen in the previous payload, so that the reader can be
+     * reused for another one. The arrays are kept, so a reader that is reset for each message in
+     * turn doesn't need to grow them again.
+     */
+    protected void prepareToRead() {
+        // don't hold on to the previous payload's objects
+        Arrays.fill(seenArray, 0, seenCount, null);
+        seenCount = 0;
+        Arrays.fill(typeIdsByStringIndex, 0);
+    }
 
     public final Object readObject() throws com.google.gwt.user.client.rpc.SerializationException {
-        int token = readInt();
+        int token = readObjectToken();
 
         if (token < 0) {
             // Negative means a previous object
             // Transform negative 1-based to 0-based.
-            return seenArray.get(-(token + 1));
+            return getDecodedObject(-token);
+        }
+
+        if (hasFlags(FLAG_COMPACT_TYPE_IDS)) {
+            // Positive is a type id, offset by one so that zero means null
+            return token == 0 ? null : deserialize(token - 1);
+        }
+
+        if (hasFlags(FLAG_STRING_DICTIONARY) && token > 0 && token <= getTypeCount()) {
+            // The signature is in the dictionary, so the token is already the type id plus one
+            return deserialize(token - 1);
         }
 
         // Positive means a new object
-        String typeSignature = getString(token);
+        String typeSignature = resolveString(token);
         if (typeSignature == null) {
             // a null string means a null instance
             return null;
         }
 
+        int typeId = resolveTypeId(token, typeSignature);
+        if (typeId >= 0) {
+            return deserialize(typeId);
+        }
+
         return deserialize(typeSignature);
     }
 
+    @Override
+    public Object readDeclaredObject() throws com.google.gwt.user.client.rpc.SerializationException {
+        int token = readObjectToken();
+        if (token < 0) {
+            return getDecodedObject(-token);
+        }
+        if (token == 0) {
+            return null;
+        }
+        if (token != DECLARED_OBJECT_TOKEN) {
+            throw new SerializationException("Expected an object of the declared type, found token " + token);
+        }
+        return NEW_OBJECT;
+    }
+
+    @Override
+    public void rememberDeclaredObject(Object instance, boolean tracked) {
+        if (tracked) {
+            // the object was created without reading anything, so reserving its index now rather
+            // than before creating it gives the same index that the writer used
+            rememberDecodedObject(reserveDecodedObjectIndex(), instance);
+        }
+    }
+
+    /**
+     * Read the token that starts each object, as written by
+     * {@code AbstractSerializationStreamWriter#writeObjectToken(int)}.
+     *
+     * @return the token
+     */
+    protected int readObjectToken() throws SerializationException {
+        return readInt();
+    }
+
+    /**
+     * Look up the type id for a type signature found in the string table, only asking the
+     * subclass the first time each signature is seen in the stream.
+     */
+    private int resolveTypeId(int stringIndex, String typeSignature) {
+        if (stringIndex >= typeIdsByStringIndex.length) {
+            typeIdsByStringIndex = Arrays.copyOf(typeIdsByStringIndex, Math.max(stringIndex + 1, typeIdsByStringIndex.length << 1));
+        }
+        int resolved = typeIdsByStringIndex[stringIndex];
+        if (resolved == UNKNOWN_TYPE_ID) {
+            return -1;
+        }
+        if (resolved != 0) {
+            return resolved - 1;
+        }
+        int typeId = getTypeId(typeSignature);
+        typeIdsByStringIndex[stringIndex] = typeId < 0 ? UNKNOWN_TYPE_ID : typeId + 1;
+        return typeId;
+    }
+
     /**
      * Deserialize an object with the given type signature.
      *
@@ -116,6 +187,28 @@ public abstract class AbstractSerializationStreamReader extends
     protected abstract Object deserialize(String typeSignature)
             throws com.google.gwt.user.client.rpc.SerializationException;
 
+    /**
+     * Deserialize an object with the given type id, as returned by {@link #getTypeId(String)}.
+     *
+     * @param typeId the type id to deserialize
+     * @return the deserialized object
+     * @throws SerializationException
+     */
+    protected Object deserialize(int typeId) throws com.google.gwt.user.client.rpc.SerializationException {
+        throw new UnsupportedOperationException("Type ids are not supported by this stream");
+    }
+
+    /**
+     * Return the type id for the given type signature, if the underlying type serializer assigns
+     * ids to types.
+     *
+     * @param typeSignature the type signature to look up
+     * @return the type id, or -1 to deserialize using the type signature instead
+     */
+    protected int getTypeId(String typeSignature) {
+        return -1;
+    }
+
     /**
      * Get the previously seen object at the given index which must be 1-based.
      *
@@ -125,7 +218,10 @@ public abstract class AbstractSerializationStreamReader extends
      */
     protected final Object getDecodedObject(int index) {
         // index is 1-based
-        return seenArray.get(index - 1);
+        if (index < 1 || index > seenCount) {
+            throw new IllegalArgumentException("Unknown object index " + index + ", only " + seenCount + " objects have been read");
+        }
+        return seenArray[index - 1];
     }
 
     /**
@@ -136,6 +232,39 @@ public abstract class AbstractSerializationStreamReader extends
      */
     protected abstract String getString(int index);
 
+    /**
+     * Gets a string by the index it was written with. With {@link #FLAG_STRING_DICTIONARY}, this
+     * may be a type signature from the dictionary, otherwise it is found in the string table.
+     *
+     * @param index the index the string was written with
+     * @return the string
+     */
+    protected final String resolveString(int index) {
+        if (index > 0 && hasFlags(FLAG_STRING_DICTIONARY)) {
+            int typeCount = getTypeCount();
+            if (index <= typeCount) {
+                return getTypeSignature(index - 1);
+            }
+            index -= typeCount;
+        }
+        return getString(index);
+    }
+
+    /**
+     * Return the number of type ids known to the type serializer, which is the size of the
+     * dictionary used with {@link #FLAG_STRING_DICTIONARY}.
+     */
+    protected int getTypeCount() {
+        return 0;
+    }
+
+    /**
+     * Return the type signature for the given type id.
+     */
+    protected String getTypeSignature(int typeId) {
+        throw new UnsupportedOperationException("Type ids are not supported by this stream");
+    }
+
     /**
      * Set an object in the seen list.
      *
@@ -145,7 +274,7 @@ public abstract class AbstractSerializationStreamReader extends
 
     protected final void rememberDecodedObject(int index, Object o) {
         // index is 1-based
-        seenArray.set(index - 1, o);
+        seenArray[index - 1] = o;
     }
 
     /**
@@ -154,9 +283,11 @@ public abstract class AbstractSerializationStreamReader extends
      * @return the index to be used in future for the object
      */
     protected final int reserveDecodedObjectIndex() {
-        seenArray.add(null);
+        if (seenCount == seenArray.length) {
+            seenArray = Arrays.copyOf(seenArray, seenCount << 1);
+        }
 
         // index is 1-based
-        return seenArray.size();
+        return ++seenCount;
     }
 }
@@ -40,9 +40,9 @@ public abstract class AbstractSerializationStreamWriter extends
 
     private int objectCount;
 
-    private Map<Object, Integer> objectMap = new IdentityHashMap<Object, Integer>();
+    private final ObjectIndexMap objectMap = new ObjectIndexMap();
 
-    private Map<String, Integer> stringMap = new HashMap<String, Integer>();
+    private final StringIndexMap stringMap = new StringIndexMap();
 
     private List<String> stringTable = new ArrayList<String>();
 
@@ -57,20 +57,20 @@ public abstract class AbstractSerializationStreamWriter extends
 //    public abstract String toString();
 
     public void writeBoolean(boolean fieldValue) {
-        append(fieldValue ? "1" : "0");
+        append(fieldValue ? 1 : 0);
     }
 
     public void writeByte(byte fieldValue) {
-        append(String.valueOf(fieldValue));
+        append((int) fieldValue);
     }
 
     public void writeChar(char ch) {
         // just use an int, it's more foolproof
-        append(String.valueOf((int) ch));
+        append((int) ch);
     }
 
     public void writeDouble(double fieldValue) {
-        append(String.valueOf(fieldValue));
+        append(fieldValue);
     }
 
     public void writeFloat(float fieldValue) {
@@ -78,27 +78,54 @@ public abstract class AbstractSerializationStreamWriter extends
     }
 
     public void writeInt(int fieldValue) {
-        append(String.valueOf(fieldValue));
+        append(fieldValue);
     }
 
     public abstract void writeLong(long value);
 
     public void writeObject(Object instance) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
         if (instance == null) {
-            // write a null string
-            writeString(null);
+            // write a null string (or in compact mode, the reserved type token)
+            writeObjectToken(0);
             return;
         }
 
-        int objIndex = getIndexForObject(instance);
-        if (objIndex >= 0) {
-            // We've already encoded this object, make a backref
-            // Transform 0-based to negative 1-based
-            writeInt(-(objIndex + 1));
-            return;
+        // If the type serializer assigned this type an id, use it to skip signature lookups
+        int typeId = getObjectTypeId(instance);
+
+        // Types that can't be shared or form cycles are written in full each time, without tracking
+        if (typeId < 0 || isReferenceTracked(typeId)) {
+            int objIndex = getIndexForObject(instance);
+            if (objIndex >= 0) {
+                // We've already encoded this object, make a backref
+                // Transform 0-based to negative 1-based
+                writeObjectToken(-(objIndex + 1));
+                return;
+            }
+
+            saveIndexForObject(instance);
         }
 
-        saveIndexForObject(instance);
+        if (hasFlags(FLAG_COMPACT_TYPE_IDS)) {
+            if (typeId < 0) {
+                throw new SerializationException(
+                        "could not get type id for " + instance.getClass() + ", cannot write it with compact type ids");
+            }
+            // Ids are offset by one, since zero means null
+            writeObjectToken(typeId + 1);
+            serialize(instance, typeId);
+            return;
+        }
+        if (typeId >= 0) {
+            if (hasFlags(FLAG_STRING_DICTIONARY)) {
+                // the signature is in the dictionary, so skip looking it up
+                writeInt(typeId + 1);
+            } else {
+                writeString(getTypeSignature(typeId));
+            }
+            serialize(instance, typeId);
+            return;
+        }
 
         // Serialize the type signature
         String typeSignature = getObjectTypeSignature(instance);
@@ -111,8 +138,28 @@ public abstract class AbstractSerializationStreamWriter extends
         serialize(instance, typeSignature);
     }
 
+    @Override
+    public boolean writeDeclaredObject(Object instance, boolean tracked) throws SerializationException {
+        if (instance == null) {
+            writeObjectToken(0);
+            return false;
+        }
+        if (tracked) {
+            int objIndex = getIndexForObject(instance);
+            if (objIndex >= 0) {
+                // Transform 0-based to negative 1-based
+                writeObjectToken(-(objIndex + 1));
+                return false;
+            }
+            saveIndexForObject(instance);
+        }
+        // the reader already knows the type, so only say that a new object follows
+        writeObjectToken(DECLARED_OBJECT_TOKEN);
+        return true;
+    }
+
     public void writeShort(short value) {
-        append(String.valueOf(value));
+        append((int) value);
     }
 
     public void writeString(String value) {
@@ -129,15 +176,35 @@ public abstract class AbstractSerializationStreamWriter extends
         if (string == null) {
             return 0;
         }
-        Integer o = stringMap.get(string);
-        if (o != null) {
-            return o;
+        int offset = 0;
+        if (hasFlags(FLAG_STRING_DICTIONARY)) {
+            // strings in the dictionary are written by id, the rest come after them
+            int typeId = getTypeId(string);
+            if (typeId >= 0) {
+                return typeId + 1;
+            }
+            offset = getTypeCount();
         }
-        stringTable.add(string);
-        // index is 1-based
-        int index = stringTable.size();
-        stringMap.put(string, index);
-        return index;
+        int index = stringMap.get(string);
+        if (index < 0) {
+            stringTable.add(string);
+            // index is 1-based
+            index = stringTable.size();
+            stringMap.put(string, index);
+        }
+        return index + offset;
+    }
+
+    /**
+     * Write the token that starts each object: zero for null, a negative back-reference to an
+     * object already in the stream, or a positive string table index (or with
+     * {@link #FLAG_COMPACT_TYPE_IDS}, a type id plus one) for a new object. By default this is
+     * written like any other int, subclasses may choose a more compact encoding.
+     *
+     * @param token the token to write
+     */
+    protected void writeObjectToken(int token) {
+        writeInt(token);
     }
 
     /**
@@ -147,6 +214,26 @@ public abstract class AbstractSerializationStreamWriter extends
      */
     protected abstract void append(String token);
 
+    /**
+     * Append an int token to the underlying output buffer. By default this appends the token as a
+     * String, subclasses may override to write the digits without creating one.
+     *
+     * @param token the token to append
+     */
+    protected void append(int token) {
+        append(String.valueOf(token));
+    }
+
+    /**
+     * Append a double token to the underlying output buffer. By default this appends the token as a
+     * String, subclasses may override to write the digits without creating one.
+     *
+     * @param token the token to append
+     */
+    protected void append(double token) {
+        append(String.valueOf(token));
+    }
+
     /**
      * Get the index for an object that may have previously been saved via
      * {@link #saveIndexForObject(Object)}.
@@ -156,7 +243,58 @@ public abstract class AbstractSerializationStreamWriter extends
      *         been seen before
      */
     protected int getIndexForObject(Object instance) {
-        return objectMap.containsKey(instance) ? objectMap.get(instance) : -1;
+        return objectMap.get(instance);
+    }
+
+    /**
+     * Compute and return the type id for an object, if the underlying type serializer
+     * assigns ids to types.
+     *
+     * @param instance the instance to inspect
+     * @return the type id of the instance, or -1 to use its type signature instead
+     */
+    protected int getObjectTypeId(Object instance) {
+        return -1;
+    }
+
+    /**
+     * Return the type id for a type signature, used with {@link #FLAG_STRING_DICTIONARY} to find
+     * strings that don't need to be added to the string table.
+     *
+     * @param typeSignature the string that may be a type signature
+     * @return the id of the type, or -1 if the string isn't a known type signature
+     */
+    protected int getTypeId(String typeSignature) {
+        return -1;
+    }
+
+    /**
+     * Return the number of type ids known to the type serializer, which is the size of the
+     * dictionary used with {@link #FLAG_STRING_DICTIONARY}.
+     */
+    protected int getTypeCount() {
+        return 0;
+    }
+
+    /**
+     * Check whether instances of the type with the given id should be remembered, so that later
+     * occurrences can be written as back-references. Both ends of the stream must agree on this.
+     *
+     * @param typeId the id of the type, from {@link #getObjectTypeId(Object)}
+     * @return false if the type serializer has marked the type as never needing back-references
+     */
+    protected boolean isReferenceTracked(int typeId) {
+        return true;
+    }
+
+    /**
+     * Return the type signature for a type id obtained from {@link #getObjectTypeId(Object)}.
+     *
+     * @param typeId the id of the type
+     * @return the type signature
+     */
+    protected String getTypeSignature(int typeId) {
+        throw new UnsupportedOperationException("Type ids are not supported by this stream");
     }
 
     /**
@@ -193,4 +331,17 @@ public abstract class AbstractSerializationStreamWriter extends
      */
     protected abstract void serialize(Object instance, String typeSignature)
             throws com.google.gwt.user.client.rpc.SerializationException;
+
+    /**
+     * Serialize an object into the stream, using a type id obtained from
+     * {@link #getObjectTypeId(Object)}.
+     *
+     * @param instance the object to serialize
+     * @param typeId the type id of the object
+     * @throws SerializationException
+     */
+    protected void serialize(Object instance, int typeId)
+            throws com.google.gwt.user.client.rpc.SerializationException {
+        serialize(instance, getTypeSignature(typeId));
+    }
 }
\ No newline at end of file
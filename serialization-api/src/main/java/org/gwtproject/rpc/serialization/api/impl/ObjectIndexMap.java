@@ -0,0 +1,79 @@
+package org.gwtproject.rpc.serialization.api.impl;
+
+import java.util.Arrays;
+
+/**
+ * Maps objects by identity to the int index they were written at, without boxing. Keys are kept
+ * in an open-addressed table with linear probing, so a lookup is a single pass over the table,
+ * and clearing it keeps the table to be reused for the next stream.
+ */
+final class ObjectIndexMap {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Returns the index of the given object, or -1 if it hasn't been added.
+     */
+    int get(Object key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Object candidate = keys[i];
+            if (candidate == key) {
+                return values[i];
+            }
+            if (candidate == null) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Adds an object that isn't already in the map.
+     */
+    void put(Object key, int value) {
+        // keep the table at most half full, so that probes stay short
+        if (size >= keys.length >> 1) {
+            resize(keys.length << 1);
+        }
+        insert(keys, values, key, value);
+        size++;
+    }
+
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, null);
+            size = 0;
+        }
+    }
+
+    private void resize(int capacity) {
+        Object[] newKeys = new Object[capacity];
+        int[] newValues = new int[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                insert(newKeys, newValues, keys[i], values[i]);
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+    private static void insert(Object[] keys, int[] values, Object key, int value) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    private static int hash(Object key) {
+        // identity hashes are often sequential, spread them across the table
+        int h = System.identityHashCode(key) * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,77 @@
+package org.gwtproject.rpc.serialization.api.impl;
+
+import java.util.Arrays;
+
+/**
+ * Maps strings to their int index in the string table, without boxing. Like {@link ObjectIndexMap},
+ * but comparing keys by equality rather than identity.
+ */
+final class StringIndexMap {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Returns the index of the given string, or -1 if it hasn't been added.
+     */
+    int get(String key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            String candidate = keys[i];
+            if (candidate == null) {
+                return -1;
+            }
+            if (candidate.equals(key)) {
+                return values[i];
+            }
+        }
+    }
+
+    /**
+     * Adds a string that isn't already in the map.
+     */
+    void put(String key, int value) {
+        // keep the table at most half full, so that probes stay short
+        if (size >= keys.length >> 1) {
+            resize(keys.length << 1);
+        }
+        insert(keys, values, key, value);
+        size++;
+    }
+
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, null);
+            size = 0;
+        }
+    }
+
+    private void resize(int capacity) {
+        String[] newKeys = new String[capacity];
+        int[] newValues = new int[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                insert(newKeys, newValues, keys[i], values[i]);
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+    private static void insert(String[] keys, int[] values, String key, int value) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
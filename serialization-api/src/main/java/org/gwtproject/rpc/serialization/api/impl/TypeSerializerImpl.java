@@ -4,17 +4,59 @@ import org.gwtproject.rpc.serialization.api.*;
 
 /**
  * Trivial implementation, assuming that the actual serializers are mapped by Class.getName.
+ *
+ * Generated subclasses pass a {@link TypeTable} to the constructor, and dispatch by type id. Hand
+ * written subclasses can instead use the no-arg constructor and override {@link #serializer(String)},
+ * in which case type ids are not supported.
  */
 public abstract class TypeSerializerImpl implements TypeSerializer {
-    protected abstract FieldSerializer serializer(String name);
+    private final TypeTable typeTable;
+
+    protected TypeSerializerImpl() {
+        this(null);
+    }
+
+    protected TypeSerializerImpl(TypeTable typeTable) {
+        this.typeTable = typeTable;
+    }
+
+    protected FieldSerializer serializer(String name) {
+        int typeId = getTypeId(name);
+        if (typeId < 0) {
+            throw new IllegalArgumentException(name);
+        }
+        return serializer(typeId);
+    }
+
+    protected FieldSerializer serializer(int typeId) {
+        if (typeTable == null) {
+            return serializer(getTypeSignature(typeId));
+        }
+        return typeTable.getSerializer(typeId);
+    }
 
     @Override
     public void deserialize(SerializationStreamReader stream, Object instance, String typeSignature) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
         serializer(typeSignature).deserial(stream, instance);
     }
 
+    /**
+     * Returns the signature from the type table if the class is in it, which is found by class
+     * without building any strings; on Java 8 getCanonicalName() builds a new string on every call.
+     * Otherwise falls back to the canonical name, of the enum itself for a constant with a body.
+     */
     @Override
     public String getSerializationSignature(Class<?> clazz) {
+        if (typeTable != null) {
+            int typeId = typeTable.getTypeId(clazz);
+            if (typeId >= 0) {
+                return typeTable.getSignature(typeId);
+            }
+        }
+        Class<?> superclass = clazz.getSuperclass();
+        if (superclass != null && superclass.isEnum()) {
+            return superclass.getCanonicalName();
+        }
         return clazz.getCanonicalName();
     }
 
@@ -27,4 +69,47 @@ public abstract class TypeSerializerImpl implements TypeSerializer {
     public void serialize(SerializationStreamWriter stream, Object instance, String typeSignature) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
         serializer(typeSignature).serial(stream, instance);
     }
+
+    @Override
+    public int getTypeId(Class<?> clazz) {
+        return typeTable == null ? -1 : typeTable.getTypeId(clazz);
+    }
+
+    @Override
+    public int getTypeId(String typeSignature) {
+        return typeTable == null ? -1 : typeTable.getTypeId(typeSignature);
+    }
+
+    @Override
+    public int getTypeCount() {
+        return typeTable == null ? 0 : typeTable.size();
+    }
+
+    @Override
+    public String getTypeSignature(int typeId) {
+        if (typeTable == null) {
+            return TypeSerializer.super.getTypeSignature(typeId);
+        }
+        return typeTable.getSignature(typeId);
+    }
+
+    @Override
+    public boolean isReferenceTracked(int typeId) {
+        return typeTable == null || typeTable.isReferenceTracked(typeId);
+    }
+
+    @Override
+    public void deserialize(SerializationStreamReader stream, Object instance, int typeId) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+        serializer(typeId).deserial(stream, instance);
+    }
+
+    @Override
+    public Object instantiate(SerializationStreamReader stream, int typeId) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+        return serializer(typeId).create(stream);
+    }
+
+    @Override
+    public void serialize(SerializationStreamWriter stream, Object instance, int typeId) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+        serializer(typeId).serial(stream, instance);
+    }
 }
@@ -0,0 +1,155 @@
+package org.gwtproject.rpc.serialization.api.impl;
+
+import org.gwtproject.rpc.serialization.api.FieldSerializer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable table of the instantiable types known to a generated TypeSerializer, where each type's
+ * id is its index in the table. Generated serializers hold one of these statically, so the tables
+ * and caches are shared by every instance of that serializer.
+ *
+ * Signatures are only hashed when a class or signature is first seen; after that, lookups by Class
+ * go through an identity cache, and serializers and signatures are found by array index, so writing
+ * an object of a known class doesn't build any strings.
+ */
+public final class TypeTable {
+    private final String[] signatures;
+    private final FieldSerializer[] serializers;
+    private final boolean[] untracked;
+
+    private final Map<String, Integer> idsBySignature = new HashMap<>();
+
+    // open-addressed by class identity, filled in as classes are first seen and never resized, so
+    // reads don't need to lock - racing writers may compute the same entry twice, or lose one
+    private final ClassId[] idsByClass;
+    private int cachedClasses;
+
+    /**
+     * @param signatures the type signatures, in id order
+     * @param serializers the field serializer for each type, in the same order as the signatures
+     */
+    public TypeTable(String[] signatures, FieldSerializer[] serializers) {
+        this(signatures, serializers, new int[0]);
+    }
+
+    /**
+     * @param signatures the type signatures, in id order
+     * @param serializers the field serializer for each type, in the same order as the signatures
+     * @param untrackedTypeIds the ids of types whose instances never need back-references
+     */
+    public TypeTable(String[] signatures, FieldSerializer[] serializers, int[] untrackedTypeIds) {
+        if (signatures.length != serializers.length) {
+            throw new IllegalArgumentException("Expected one serializer per signature, found " + serializers.length + " serializers for " + signatures.length + " signatures");
+        }
+        this.signatures = signatures;
+        this.serializers = serializers;
+        for (int i = 0; i < signatures.length; i++) {
+            idsBySignature.put(signatures[i], i);
+        }
+        this.untracked = new boolean[signatures.length];
+        for (int typeId : untrackedTypeIds) {
+            checkTypeId(typeId);
+            untracked[typeId] = true;
+        }
+        int capacity = 16;
+        while (capacity < signatures.length * 4) {
+            capacity <<= 1;
+        }
+        this.idsByClass = new ClassId[capacity];
+    }
+
+    /**
+     * Returns the number of types in the table, one more than the highest valid id.
+     */
+    public int size() {
+        return signatures.length;
+    }
+
+    /**
+     * Returns the id of the given type signature, or -1 if it isn't in this table.
+     */
+    public int getTypeId(String typeSignature) {
+        Integer id = idsBySignature.get(typeSignature);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the id of the given class, or -1 if it isn't in this table. The class's signature
+     * is only computed the first time a class in the table is seen. The class of an enum constant
+     * with a body is given the id of its enum, so callers can pass {@code getClass()} of any
+     * instance.
+     * <p>
+     * Only classes in the table are remembered, so the cache holds no more classes than the
+     * generated serializer already refers to. It stops growing once half full, which only enum
+     * constants with bodies can cause; later classes are looked up by signature each time.
+     */
+    public int getTypeId(Class<?> clazz) {
+        ClassId[] table = idsByClass;
+        int mask = table.length - 1;
+        int i = hash(clazz) & mask;
+        for (ClassId entry = table[i]; entry != null; entry = table[i]) {
+            if (entry.clazz == clazz) {
+                return entry.typeId;
+            }
+            i = (i + 1) & mask;
+        }
+        int computed = getTypeId(clazz.getCanonicalName());
+        Class<?> superclass = clazz.getSuperclass();
+        if (computed == -1 && superclass != null && superclass.isEnum()) {
+            computed = getTypeId(superclass);
+        }
+        if (computed != -1 && cachedClasses < table.length >> 1) {
+            // i is the empty slot the search ended on
+            table[i] = new ClassId(clazz, computed);
+            cachedClasses++;
+        }
+        return computed;
+    }
+
+    private static int hash(Class<?> clazz) {
+        // identity hashes are often sequential, spread them across the table
+        int h = System.identityHashCode(clazz) * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    public String getSignature(int typeId) {
+        checkTypeId(typeId);
+        return signatures[typeId];
+    }
+
+    public FieldSerializer getSerializer(int typeId) {
+        checkTypeId(typeId);
+        return serializers[typeId];
+    }
+
+    /**
+     * Returns false if the type's instances are written in full each time they appear, rather
+     * than as back-references.
+     */
+    public boolean isReferenceTracked(int typeId) {
+        checkTypeId(typeId);
+        return !untracked[typeId];
+    }
+
+    /**
+     * A cached class and its id, immutable so that readers racing a writer see either no entry or
+     * a complete one.
+     */
+    private static final class ClassId {
+        private final Class<?> clazz;
+        private final int typeId;
+
+        private ClassId(Class<?> clazz, int typeId) {
+            this.clazz = clazz;
+            this.typeId = typeId;
+        }
+    }
+
+    private void checkTypeId(int typeId) {
+        if (typeId < 0 || typeId >= signatures.length) {
+            throw new IllegalArgumentException("Unknown type id " + typeId);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package org.gwtproject.rpc.benchmarks;
+
+import org.gwtproject.rpc.serialization.api.FieldSerializer;
+import org.gwtproject.rpc.serialization.api.SerializationException;
+import org.gwtproject.rpc.serialization.api.SerializationStreamReader;
+import org.gwtproject.rpc.serialization.api.SerializationStreamWriter;
+import org.gwtproject.rpc.serialization.api.impl.TypeSerializerImpl;
+import org.gwtproject.rpc.serialization.api.impl.TypeTable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Small object model used by the benchmarks, along with hand written field serializers and type
+ * serializers, shaped like the ones that the serialization processor generates.
+ */
+public class Shapes {
+    public static class Point {
+        int x;
+        int y;
+    }
+    public static class Line {
+        Point start;
+        Point end;
+    }
+    public static class Circle {
+        Point center;
+        double radius;
+    }
+    public static class Label {
+        Point anchor;
+        String text;
+    }
+    public static class Layer {
+        public static class Node {
+            Point position;
+            Style style;
+        }
+    }
+    public enum Style {
+        PLAIN,
+        BOLD {
+            @Override
+            public String toString() {
+                return "bold";
+            }
+        },
+        ITALIC {
+            @Override
+            public String toString() {
+                return "italic";
+            }
+        }
+    }
+
+    /**
+     * Builds a graph of {@code count} shapes, where points are sometimes shared between shapes.
+     */
+    public static Object[] createShapes(int count, long seed) {
+        return createShapes(count, seed, false);
+    }
+
+    /**
+     * Builds a graph of {@code count} shapes, as above, optionally also including nested classes
+     * and enum constants with bodies, whose classes are the slowest to find signatures for.
+     */
+    public static Object[] createShapes(int count, long seed, boolean nested) {
+        Random random = new Random(seed);
+        Object[] shapes = new Object[count];
+        Point previous = point(random);
+        for (int i = 0; i < count; i++) {
+            switch (random.nextInt(nested ? 6 : 4)) {
+                case 0:
+                    shapes[i] = previous = point(random);
+                    break;
+                case 1:
+                    Line line = new Line();
+                    line.start = previous;
+                    line.end = previous = point(random);
+                    shapes[i] = line;
+                    break;
+                case 2:
+                    Circle circle = new Circle();
+                    circle.center = previous;
+                    circle.radius = random.nextDouble();
+                    shapes[i] = circle;
+                    break;
+                case 3:
+                    Label label = new Label();
+                    label.anchor = point(random);
+                    label.text = "label " + random.nextInt(16);
+                    shapes[i] = label;
+                    break;
+                case 4:
+                    Layer.Node node = new Layer.Node();
+                    node.position = previous;
+                    node.style = style(random);
+                    shapes[i] = node;
+                    break;
+                default:
+                    shapes[i] = style(random);
+            }
+        }
+        return shapes;
+    }
+
+    private static Point point(Random random) {
+        Point point = new Point();
+        point.x = random.nextInt(1000);
+        point.y = random.nextInt(1000);
+        return point;
+    }
+
+    private static Style style(Random random) {
+        return Style.values()[random.nextInt(Style.values().length)];
+    }
+
+    public static class Point_FieldSerializer implements FieldSerializer {
+        @Override
+        public void serial(SerializationStreamWriter writer, Object instance) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+            writer.writeInt(((Point) instance).x);
+            writer.writeInt(((Point) instance).y);
+        }
+
+        @Override
+        public Object create(SerializationStreamReader reader) {
+            return new Point();
+        }
+
+        @Override
+        public void deserial(SerializationStreamReader reader, Object instance) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+            ((Point) instance).x = reader.readInt();
+            ((Point) instance).y = reader.readInt();
+        }
+    }
+
+    public static class Line_FieldSerializer implements FieldSerializer {
+        @Override
+        public void serial(SerializationStreamWriter writer, Object instance) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+            writer.writeObject(((Line) instance).start);
+            writer.writeObject(((Line) instance).end);
+        }
+
+        @Override
+        public Object create(SerializationStreamReader reader) {
+            return new Line();
+        }
+
+        @Override
+        public void deserial(SerializationStreamReader reader, Object instance) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+            ((Line) instance).start = (Point) reader.readObject();
+            ((Line) instance).end = (Point) reader.readObject();
+        }
+    }
+
+    public static class Circle_FieldSerializer implements FieldSerializer {
+        @Override
+        public void serial(SerializationStreamWriter writer, Object instance) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+            writer.writeObject(((Circle) instance).center);
+            writer.writeDouble(((Circle) instance).radius);
+        }
+
+        @Override
+        public Object create(SerializationStreamReader reader) {
+            return new Circle();
+        }
+
+        @Override
+        public void deserial(SerializationStreamReader reader, Object instance) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+            ((Circle) instance).center = (Point) reader.readObject();
+            ((Circle) instance).radius = reader.readDouble();
+        }
+    }
+
+    public static class Label_FieldSerializer implements FieldSerializer {
+        @Override
+        public void serial(SerializationStreamWriter writer, Object instance) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+            writer.writeObject(((Label) instance).anchor);
+            writer.writeString(((Label) instance).text);
+        }
+
+        @Override
+        public Object create(SerializationStreamReader reader) {
+            return new Label();
+        }
+
+        @Override
+        public void deserial(SerializationStreamReader reader, Object instance) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+            ((Label) instance).anchor = (Point) reader.readObject();
+            ((Label) instance).text = reader.readString();
+        }
+    }
+
+    public static class Node_FieldSerializer implements FieldSerializer {
+        @Override
+        public void serial(SerializationStreamWriter writer, Object instance) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+            writer.writeObject(((Layer.Node) instance).position);
+            writer.writeObject(((Layer.Node) instance).style);
+        }
+
+        @Override
+        public Object create(SerializationStreamReader reader) {
+            return new Layer.Node();
+        }
+
+        @Override
+        public void deserial(SerializationStreamReader reader, Object instance) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+            ((Layer.Node) instance).position = (Point) reader.readObject();
+            ((Layer.Node) instance).style = (Style) reader.readObject();
+        }
+    }
+
+    public static class Style_FieldSerializer implements FieldSerializer {
+        @Override
+        public void serial(SerializationStreamWriter writer, Object instance) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+            writer.writeInt(((Style) instance).ordinal());
+        }
+
+        @Override
+        public Object create(SerializationStreamReader reader) throws SerializationException, com.google.gwt.user.client.rpc.SerializationException {
+            return Style.values()[reader.readInt()];
+        }
+
+        @Override
+        public void deserial(SerializationStreamReader reader, Object instance) {
+            // enum constants have no fields to read
+        }
+    }
+
+    /**
+     * Generated serializers usually know about more types than a given payload uses, pad the
+     * tables out so that lookups aren't unrealistically cheap.
+     */
+    private static final int UNUSED_TYPES = 60;
+
+    private static String[] signatures() {
+        String[] signatures = new String[6 + UNUSED_TYPES];
+        signatures[0] = Circle.class.getCanonicalName();
+        signatures[1] = Label.class.getCanonicalName();
+        signatures[2] = Layer.Node.class.getCanonicalName();
+        signatures[3] = Line.class.getCanonicalName();
+        signatures[4] = Point.class.getCanonicalName();
+        signatures[5] = Style.class.getCanonicalName();
+        for (int i = 0; i < UNUSED_TYPES; i++) {
+            signatures[6 + i] = "org.gwtproject.rpc.benchmarks.unused.Type" + i;
+        }
+        return signatures;
+    }
+
+    private static FieldSerializer[] serializers() {
+        FieldSerializer[] serializers = new FieldSerializer[6 + UNUSED_TYPES];
+        serializers[0] = new Circle_FieldSerializer();
+        serializers[1] = new Label_FieldSerializer();
+        serializers[2] = new Node_FieldSerializer();
+        serializers[3] = new Line_FieldSerializer();
+        serializers[4] = new Point_FieldSerializer();
+        serializers[5] = new Style_FieldSerializer();
+        for (int i = 0; i < UNUSED_TYPES; i++) {
+            serializers[6 + i] = new FieldSerializer() {};
+        }
+        return serializers;
+    }
+
+    /**
+     * Type serializer in the style of the processor's original output, looking up each field
+     * serializer by signature in a map.
+     */
+    public static class MapTypeSerializer extends TypeSerializerImpl {
+        private static final Map<String, FieldSerializer> fieldSerializer = new HashMap<>();
+        static {
+            String[] signatures = signatures();
+            FieldSerializer[] serializers = serializers();
+            for (int i = 0; i < signatures.length; i++) {
+                fieldSerializer.put(signatures[i], serializers[i]);
+            }
+        }
+
+        @Override
+        protected FieldSerializer serializer(String name) {
+            return fieldSerializer.computeIfAbsent(name, ignore -> {throw new IllegalArgumentException(name);});
+        }
+
+        @Override
+        public String getChecksum() {
+            return "benchmark";
+        }
+    }
+
+    /**
+     * Type serializer in the style of the processor's current output, dispatching by type id.
+     */
+    public static class TableTypeSerializer extends TypeSerializerImpl {
+        private static final TypeTable typeTable = new TypeTable(signatures(), serializers());
+
+        public TableTypeSerializer() {
+            super(typeTable);
+        }
+
+        @Override
+        public String getChecksum() {
+            return "benchmark";
+        }
+    }
+}
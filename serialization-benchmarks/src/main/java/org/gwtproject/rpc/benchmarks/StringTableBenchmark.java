@@ -0,0 +1,82 @@
+package org.gwtproject.rpc.benchmarks;
+
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
+import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamReader;
+import org.gwtproject.rpc.serialization.stream.string.StringSerializationStreamWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes and reads string streams whose string tables look like typical responses - mostly plain
+ * names and short sentences, with a share of strings that need quoting.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringTableBenchmark {
+    private static final String[] WORDS = {"alpha", "beta", "gamma", "delta", "user", "message", "room", "the", "quick", "brown", "fox", "\u00e9t\u00e9", "\u2713"};
+    private static final String[] QUOTED = {"|", "\\", "\0"};
+
+    @Param({"100", "1000"})
+    public int count;
+
+    /**
+     * Percentage of strings that contain a character that must be quoted.
+     */
+    @Param({"0", "10"})
+    public int quotedPercent;
+
+    // only strings are written, so any serializer will do
+    private final TypeSerializer serializer = new Shapes.TableTypeSerializer();
+
+    private String[] strings;
+    private String payload;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder();
+            int words = 1 + random.nextInt(6);
+            for (int j = 0; j < words; j++) {
+                if (j > 0) {
+                    sb.append(' ');
+                }
+                sb.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            if (random.nextInt(100) < quotedPercent) {
+                sb.insert(random.nextInt(sb.length()), QUOTED[random.nextInt(QUOTED.length)]);
+            }
+            // keep each string distinct, so that the table isn't collapsed
+            sb.append(' ').append(i);
+            strings[i] = sb.toString();
+        }
+        payload = write();
+    }
+
+    @Benchmark
+    public String write() {
+        StringSerializationStreamWriter writer = new StringSerializationStreamWriter(serializer);
+        writer.prepareToWrite();
+        for (String string : strings) {
+            writer.writeString(string);
+        }
+        return writer.toString();
+    }
+
+    @Benchmark
+    public String[] read() throws Exception {
+        StringSerializationStreamReader reader = new StringSerializationStreamReader(serializer, payload);
+        String[] result = new String[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = reader.readString();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+package org.gwtproject.rpc.benchmarks;
+
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamReader;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares looking up field serializers by signature in a map against dispatching by type id
+ * through a {@link org.gwtproject.rpc.serialization.api.impl.TypeTable}. Without a table, each
+ * object's signature is built from its class's canonical name, which is slowest for nested classes
+ * and enum constants with bodies, so those can be mixed in to the shapes written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeDispatchBenchmark {
+    @Param({"map", "table"})
+    public String dispatch;
+
+    @Param({"1000"})
+    public int count;
+
+    @Param({"false", "true"})
+    public boolean nested;
+
+    private TypeSerializer serializer;
+    private Object[] shapes;
+    private ByteBuffer payload;
+
+    @Setup
+    public void setup() throws Exception {
+        serializer = dispatch.equals("map") ? new Shapes.MapTypeSerializer() : new Shapes.TableTypeSerializer();
+        shapes = Shapes.createShapes(count, 1, nested);
+        payload = write();
+    }
+
+    @Benchmark
+    public ByteBuffer write() throws Exception {
+        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(serializer);
+        writer.writeInt(shapes.length);
+        for (Object shape : shapes) {
+            writer.writeObject(shape);
+        }
+        return writer.getFullPayload();
+    }
+
+    /**
+     * Finds the signature of each shape's class, as a writer does for each object written without
+     * {@link org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream#FLAG_COMPACT_TYPE_IDS}.
+     */
+    @Benchmark
+    public void signatures(Blackhole blackhole) {
+        for (Object shape : shapes) {
+            blackhole.consume(serializer.getSerializationSignature(shape.getClass()));
+        }
+    }
+
+    @Benchmark
+    public Object[] read() throws Exception {
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(serializer, payload.duplicate());
+        Object[] result = new Object[reader.readInt()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = reader.readObject();
+        }
+        return result;
+    }
+}
@@ -11,6 +11,7 @@ import org.gwtproject.rpc.serial.model.SerializableTypeModel.Property;
 import org.gwtproject.rpc.serial.processor.*;
 import org.gwtproject.rpc.serialization.api.*;
 import org.gwtproject.rpc.serialization.api.impl.TypeSerializerImpl;
+import org.gwtproject.rpc.serialization.api.impl.TypeTable;
 import org.gwtproject.serial.json.Details;
 import org.gwtproject.serial.json.Type;
 
@@ -29,6 +30,8 @@ import javax.tools.Diagnostic.Kind;
 import javax.tools.FileObject;
 import javax.tools.StandardLocation;
 import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -47,6 +50,15 @@ public class Processor extends AbstractProcessor {
     private static final String GENERATED_ANNOTATION_JDK9 = "javax.annotation.processing.Generated";
     private static final String GENERATED_ANNOTATION_LEGACY = "javax.annotation.Generated";
 
+    /**
+     * JRE types that are immutable and hold no references, so instances never need back-references.
+     */
+    private static final Set<String> IMMUTABLE_LEAF_TYPES = new HashSet<>(Arrays.asList(
+            Boolean.class.getName(), Byte.class.getName(), Character.class.getName(), Short.class.getName(),
+            Integer.class.getName(), Long.class.getName(), Float.class.getName(), Double.class.getName(),
+            String.class.getName()
+    ));
+
     private TypeElement serializationStreamReader;
     private TypeElement serializationStreamWriter;
     private TypeElement typeSerializer;
@@ -60,6 +72,30 @@ public class Processor extends AbstractProcessor {
 
     private Set<String> allTypes = new HashSet<>();
 
+    private boolean untrackValueTypes;
+
+    /**
+     * Whether fields whose type is a final class are written without their type, calling that
+     * type's field serializer directly. Off by default, as both ends must then be generated with
+     * the same setting.
+     */
+    private boolean useDeclaredObjects;
+
+    /**
+     * How private and final fields without a getter and setter are accessed, either "jvm" for
+     * method handles, or "jsni" for GWT's native methods. If null, such fields aren't supported.
+     */
+    private String fieldAccessors;
+
+    private boolean reportTimings;
+
+    /**
+     * Field serializers already written in this compilation, by their qualified name, and whether
+     * each uses the declared object fast path. Type serializers for different interfaces often
+     * share types, and the filer won't allow a file to be written twice anyway.
+     */
+    private final Map<String, Boolean> writtenFieldSerializers = new HashMap<>();
+
 
     @Override
     public Set<String> getSupportedAnnotationTypes() {
@@ -75,7 +111,7 @@ public class Processor extends AbstractProcessor {
 
     @Override
     public Set<String> getSupportedOptions() {
-        return Collections.singleton("serial.knownSubtypes");
+        return new HashSet<>(Arrays.asList("serial.knownSubtypes", "serial.untrackValueTypes", "serial.declaredObjects", "serial.fieldAccessors", "serial.timings"));
     }
 
     @Override
@@ -87,6 +123,18 @@ public class Processor extends AbstractProcessor {
         types = processingEnv.getTypeUtils();
         elements = processingEnv.getElementUtils();
 
+        untrackValueTypes = Boolean.parseBoolean(processingEnv.getOptions().get("serial.untrackValueTypes"));
+
+        useDeclaredObjects = Boolean.parseBoolean(processingEnv.getOptions().get("serial.declaredObjects"));
+
+        reportTimings = Boolean.parseBoolean(processingEnv.getOptions().get("serial.timings"));
+
+        fieldAccessors = processingEnv.getOptions().get("serial.fieldAccessors");
+        if (fieldAccessors != null && !fieldAccessors.equals("jvm") && !fieldAccessors.equals("jsni")) {
+            messager.printMessage(Kind.ERROR, "serial.fieldAccessors must be either jvm or jsni: " + fieldAccessors);
+            fieldAccessors = null;
+        }
+
         try {
             String knownSubtypes = processingEnv.getOptions().get("serial.knownSubtypes");
             if (knownSubtypes != null) {
@@ -139,12 +187,25 @@ public class Processor extends AbstractProcessor {
         }
 
 
+        Set<? extends Element> wiringElements = roundEnv.getElementsAnnotatedWith(serializationWiring);
+        if (wiringElements.isEmpty()) {
+            // nothing to generate this round, don't bother walking every type
+            return false;
+        }
+
         // continue processing with the full list of types if there was a change
         //TODO this is a little amateurish, try to keep the data collection more separate from the codegen...
+        long start = System.nanoTime();
         Map<TypeElement, Set<TypeElement>> subtypes = buildTypeTree(allTypes);
-        for (Element element : roundEnv.getElementsAnnotatedWith(serializationWiring)) {
+        reportTiming("Built type tree of " + allTypes.size() + " types", start);
+
+        // shared by every interface this round, so each type's subtypes are only collected once
+        SerializingTypes serializingTypes = new SerializingTypes(processingEnv.getTypeUtils(), processingEnv.getElementUtils(), subtypes);
+
+        // elements shouldn't outlive their round, so oracles are only shared within this one
+        Map<String, SerializableTypeOracle> oracles = new HashMap<>();
+        for (Element element : wiringElements) {
 
-            SerializingTypes serializingTypes = new SerializingTypes(processingEnv.getTypeUtils(), processingEnv.getElementUtils(), subtypes);
             SerializableTypeOracleBuilder readStob = new SerializableTypeOracleBuilder(
                     processingEnv.getElementUtils(),
                     messager, serializingTypes
@@ -184,8 +245,8 @@ public class Processor extends AbstractProcessor {
             SerializableTypeOracle writeOracle;
             SerializableTypeOracle readOracle;
             try {
-                writeOracle = writeStob.build();
-                readOracle = readStob.build();
+                writeOracle = build(writeStob, oracles);
+                readOracle = build(readStob, oracles);
             } catch (UnableToCompleteException e) {
 //                throw new RuntimeException(e);
                 //already logged a message, just give up
@@ -193,7 +254,9 @@ public class Processor extends AbstractProcessor {
             }
 
             try {
+                start = System.nanoTime();
                 writeImpl(writeOracle, readOracle, element, serializingTypes);
+                reportTiming("Wrote serializers for " + element, start);
             } catch (IOException ex) {
                 throw new UncheckedIOException(ex);
             }
@@ -203,16 +266,37 @@ public class Processor extends AbstractProcessor {
         return false;
     }
 
+    /**
+     * Builds the oracle for the builder's root types, unless one was already built for the same
+     * root types this round.
+     */
+    private SerializableTypeOracle build(SerializableTypeOracleBuilder stob, Map<String, SerializableTypeOracle> oracles) throws UnableToCompleteException {
+        String key = stob.getRootTypesKey();
+        SerializableTypeOracle oracle = oracles.get(key);
+        if (oracle == null) {
+            stob.setReportTimings(reportTimings);
+            oracle = stob.build();
+            oracles.put(key, oracle);
+        }
+        return oracle;
+    }
+
+    private void reportTiming(String message, long startNanos) {
+        if (reportTimings) {
+            messager.printMessage(Kind.NOTE, message + " in " + (System.nanoTime() - startNanos) / 1_000_000 + "ms");
+        }
+    }
+
     private void writeImpl(SerializableTypeOracle writeOracle, SerializableTypeOracle readOracle, Element serializationInterface, SerializingTypes serializingTypes) throws IOException {
 
         SerializableTypeOracleUnion bidiOracle = new SerializableTypeOracleUnion(readOracle, writeOracle);
-        //write field serializers
+        //model every type first, so that field serializers can refer to the models of their field types
         List<SerializableTypeModel> models = new ArrayList<>();
+        Map<String, SerializableTypeModel> modelsByType = new HashMap<>();
         for (TypeMirror serializableType : bidiOracle.getSerializableTypes()) {
             SerializableTypeModel model;
             if (serializableType.getKind() == TypeKind.ARRAY) {
                 model = SerializableTypeModel.array(serializableType, bidiOracle, serializingTypes);
-                writeArraySerializer(model);
             } else {
                 assert serializableType.getKind() == TypeKind.DECLARED : serializableType.getKind();
                 //get the element itself and write it
@@ -222,13 +306,34 @@ public class Processor extends AbstractProcessor {
                         messager,
                         bidiOracle.isSerializable(serializableType),
                         bidiOracle.maybeInstantiated(serializableType),
-                        bidiOracle
+                        bidiOracle,
+                        fieldAccessors != null
                 );
-                writeFieldSerializer(model);
+                modelsByType.put(types.erasure(serializableType).toString(), model);
             }
             models.add(model);
         }
 
+        //write field serializers
+        boolean declaredObjects = false;
+        for (SerializableTypeModel model : models) {
+            if (model.getType().getKind() == TypeKind.ARRAY) {
+                String name = model.getFieldSerializer().enclosingClassName().toString();
+                if (!writtenFieldSerializers.containsKey(name)) {
+                    writeArraySerializer(model);
+                    writtenFieldSerializers.put(name, false);
+                }
+            } else {
+                String name = model.getFieldSerializerPackage() + "." + model.getFieldSerializerName();
+                Boolean written = writtenFieldSerializers.get(name);
+                if (written == null) {
+                    written = writeFieldSerializer(model, modelsByType);
+                    writtenFieldSerializers.put(name, written);
+                }
+                declaredObjects |= written;
+            }
+        }
+
 
         String prefix = serializationInterface.getSimpleName().toString();
         String packageName = elements.getPackageOf(serializationInterface).getQualifiedName().toString();
@@ -238,6 +343,11 @@ public class Processor extends AbstractProcessor {
 
         // write out a JSON file describing which describes the serializable types so other tooling can be generated from this
         String hash = writeJsonManifest(prefix, packageName, models);
+        if (declaredObjects) {
+            // objects of final field types are written without their type, so make sure that both ends
+            // only connect if they were generated the same way
+            hash = hash + "-declared";
+        }
 
         // write type serializer, pointing at required field serializers and their appropriate use in each direction
         //TODO consider only doing this once, later, so we can be sure classes are still needed? not sure...
@@ -382,26 +492,46 @@ public class Processor extends AbstractProcessor {
                 .addModifiers(Modifier.PUBLIC);
         addGeneratedMetadata(typeSerializer);
 
-        //TODO this isn't optimal, but is easy to write quickly
-        typeSerializer.addField(FieldSpec.builder(
-                ParameterizedTypeName.get(Map.class, String.class, FieldSerializer.class),
-                "fieldSerializer",
-                Modifier.PRIVATE, Modifier.FINAL, Modifier.STATIC).initializer("new $T()", ClassName.get(HashMap.class)).build());
-
-        CodeBlock.Builder clinit = CodeBlock.builder();
-        for (SerializableTypeModel model : models) {
-            if (model.mayBeInstantiated()) {
-                clinit.addStatement("fieldSerializer.put($S, new $T())", types.erasure(model.getType()), model.getFieldSerializer());
+        // Each instantiable type gets a dense id, its index in the table. These are sorted by signature
+        // so that both ends of the wire agree on the ids, as long as they agree on the checksum.
+        List<SerializableTypeModel> instantiable = models.stream()
+                .filter(SerializableTypeModel::mayBeInstantiated)
+                .sorted(Comparator.comparing(model -> types.erasure(model.getType()).toString()))
+                .collect(Collectors.toList());
+
+        CodeBlock.Builder signatures = CodeBlock.builder().add("new $T[] {\n", String.class).indent();
+        CodeBlock.Builder serializers = CodeBlock.builder().add("new $T[] {\n", FieldSerializer.class).indent();
+        List<String> untrackedIds = new ArrayList<>();
+        for (int i = 0; i < instantiable.size(); i++) {
+            SerializableTypeModel model = instantiable.get(i);
+            signatures.add("$S,\n", types.erasure(model.getType()));
+            serializers.add("new $T(),\n", model.getFieldSerializer());
+            if (untrackValueTypes && isImmutableLeaf(model)) {
+                untrackedIds.add(String.valueOf(i));
             }
         }
-        typeSerializer.addStaticBlock(clinit.build());
+        signatures.unindent().add("}");
+        serializers.unindent().add("}");
+
+        CodeBlock tableInitializer;
+        if (untrackedIds.isEmpty()) {
+            tableInitializer = CodeBlock.of("new $T(\n$>$L,\n$L$<)", TypeTable.class, signatures.build(), serializers.build());
+        } else {
+            tableInitializer = CodeBlock.of("new $T(\n$>$L,\n$L,\nnew int[] {$L}$<)", TypeTable.class, signatures.build(), serializers.build(), String.join(", ", untrackedIds));
+            // both ends must agree on which types are tracked, so make sure they only connect if they do
+            hash = hash + "-untracked";
+        }
 
-        typeSerializer.addMethod(MethodSpec.methodBuilder("serializer")
-                .addModifiers(Modifier.PROTECTED)
-                .addAnnotation(Override.class)
-                .addParameter(String.class, "name")
-                .returns(FieldSerializer.class)
-                .addStatement("return fieldSerializer.computeIfAbsent(name, ignore -> {throw new IllegalArgumentException(name);})")
+        typeSerializer.addField(FieldSpec.builder(
+                TypeTable.class,
+                "typeTable",
+                Modifier.PRIVATE, Modifier.FINAL, Modifier.STATIC)
+                .initializer(tableInitializer)
+                .build());
+
+        typeSerializer.addMethod(MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addStatement("super(typeTable)")
                 .build());
 
         typeSerializer.addMethod(MethodSpec.methodBuilder("getChecksum")
@@ -413,6 +543,42 @@ public class Processor extends AbstractProcessor {
         JavaFile.builder(packageName, typeSerializer.build()).build().writeTo(filer);
     }
 
+    /**
+     * Checks if instances of a type can neither be part of a cycle nor be modified once created,
+     * so sharing one instance is only visible through its identity. These are enums, boxed
+     * primitives and Strings, and types whose only serialized state is final fields of primitive,
+     * String, boxed or enum types.
+     */
+    private boolean isImmutableLeaf(SerializableTypeModel model) {
+        if (model.getType().getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        TypeElement typeElement = model.getTypeElement();
+        if (typeElement.getKind() == ElementKind.ENUM || IMMUTABLE_LEAF_TYPES.contains(typeElement.getQualifiedName().toString())) {
+            return true;
+        }
+        if (model.getCustomFieldSerializer() != null || model.getSuperclassFieldSerializer() != null || !model.getProperties().isEmpty()) {
+            return false;
+        }
+        for (Field field : model.getFields()) {
+            if (!field.getField().getModifiers().contains(Modifier.FINAL)) {
+                return false;
+            }
+            TypeMirror fieldType = field.getField().asType();
+            if (fieldType.getKind().isPrimitive()) {
+                continue;
+            }
+            if (fieldType.getKind() != TypeKind.DECLARED) {
+                return false;
+            }
+            TypeElement fieldTypeElement = (TypeElement) types.asElement(fieldType);
+            if (fieldTypeElement.getKind() != ElementKind.ENUM && !IMMUTABLE_LEAF_TYPES.contains(fieldTypeElement.getQualifiedName().toString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void writeArraySerializer(SerializableTypeModel model) throws IOException {
         int rank = JTypeUtils.getRank(model.getType());
         assert rank > 0;
@@ -442,11 +608,19 @@ public class Processor extends AbstractProcessor {
                 .addException(com.google.gwt.user.client.rpc.SerializationException.class)
                 .addException(SerializationException.class);
 
+        // primitive arrays (other than boolean[]) can be read and written in bulk
+        boolean bulk = rank == 1 && componentType.getKind().isPrimitive() && componentType.getKind() != TypeKind.BOOLEAN;
+
         //TODO for readObject, share the Object_Array_CustomFieldSerializer
-        deserializeMethodBuilder
-                .beginControlFlow("for (int i = 0, n = instance.length; i < n; ++i)")
-                .addStatement("instance[i] = ($T$L) reader.read$L()", componentType, extraArrayRank, SerializableTypeModel.getStreamMethodSuffix(componentType, rank - 1))
-                .endControlFlow();
+        if (bulk) {
+            deserializeMethodBuilder
+                    .addStatement("reader.read$Ls(instance, 0, instance.length)", SerializableTypeModel.getStreamMethodSuffix(componentType, 0));
+        } else {
+            deserializeMethodBuilder
+                    .beginControlFlow("for (int i = 0, n = instance.length; i < n; ++i)")
+                    .addStatement("instance[i] = ($T$L) reader.read$L()", componentType, extraArrayRank, SerializableTypeModel.getStreamMethodSuffix(componentType, rank - 1))
+                    .endControlFlow();
+        }
 
         fieldSerializerType.addMethod(deserializeMethodBuilder.build());
 
@@ -461,10 +635,21 @@ public class Processor extends AbstractProcessor {
                 .addException(SerializationException.class);
 
         serializeMethodBuilder
-                .addStatement("writer.writeInt(instance.length)")
-                .beginControlFlow("for (int i = 0, n = instance.length; i < n; ++i)")
-                .addStatement("writer.write$L(instance[i])", SerializableTypeModel.getStreamMethodSuffix(componentType, rank - 1))
-                .endControlFlow();
+                .addStatement("writer.writeInt(instance.length)");
+        if (bulk) {
+            // the stream will reserve room for the whole array at once
+            serializeMethodBuilder
+                    .addStatement("writer.write$Ls(instance, 0, instance.length)", SerializableTypeModel.getStreamMethodSuffix(componentType, 0));
+        } else {
+            if (rank == 1 && componentType.getKind() == TypeKind.BOOLEAN) {
+                // let the stream make room for the whole array at once, one byte per boolean
+                serializeMethodBuilder.addStatement("writer.reserve(instance.length)");
+            }
+            serializeMethodBuilder
+                    .beginControlFlow("for (int i = 0, n = instance.length; i < n; ++i)")
+                    .addStatement("writer.write$L(instance[i])", SerializableTypeModel.getStreamMethodSuffix(componentType, rank - 1))
+                    .endControlFlow();
+        }
 
         fieldSerializerType.addMethod(serializeMethodBuilder.build());
 
@@ -493,7 +678,14 @@ public class Processor extends AbstractProcessor {
         }
     }
 
-    private void writeFieldSerializer(SerializableTypeModel model) throws IOException {
+    /**
+     * Writes the field serializer for a type.
+     *
+     * @param model the type to write the field serializer for
+     * @param modelsByType the models of all types in this serializer, keyed by their erased type
+     * @return true if any field is written with {@link SerializationStreamWriter#writeDeclaredObject(Object, boolean)}
+     */
+    private boolean writeFieldSerializer(SerializableTypeModel model, Map<String, SerializableTypeModel> modelsByType) throws IOException {
         //collect fields (err, properties for now)
         TypeSpec.Builder fieldSerializerType = TypeSpec.classBuilder(model.getFieldSerializerName())
                 .addSuperinterface(ClassName.get(fieldSerializer))
@@ -502,6 +694,7 @@ public class Processor extends AbstractProcessor {
         addGeneratedMetadata(fieldSerializerType);
 
         boolean writeSerialize = false, writeDeserialize = false, writeInstantiate = false;
+        boolean declaredObjects = false;
         if (model.getTypeElement().getKind() == ElementKind.ENUM) {
             //write deserialize method
             MethodSpec.Builder deserializeMethodBuilder = MethodSpec.methodBuilder("deserialize")
@@ -528,7 +721,9 @@ public class Processor extends AbstractProcessor {
             writeDeserialize = true;
 
             //write field accessors for violator stuff
-            //TODO support private fields, not just the easy stuff. (then we can support final and other good fun)
+            if (model.getCustomFieldSerializer() == null) {
+                addFieldAccessors(fieldSerializerType, model);
+            }
 
             //write deserialize method
             MethodSpec.Builder deserializeMethodBuilder = MethodSpec.methodBuilder("deserialize")
@@ -550,10 +745,22 @@ public class Processor extends AbstractProcessor {
             } else {
                 deserializeMethodBuilder.addParameter(model.getTypeName(), "instance");
                 for (Property property : model.getProperties()) {
+                    SerializableTypeModel declared = getDeclaredTypeModel(property.getGetter().getReturnType(), modelsByType);
+                    if (declared != null) {
+                        addDeclaredObjectRead(deserializeMethodBuilder, declared, CodeBlock.of("instance.$L(($T) value)", property.getSetter().getSimpleName(), declared.getTypeName()));
+                        declaredObjects = true;
+                        continue;
+                    }
                     deserializeMethodBuilder.addStatement("instance.$L(($T) reader.read$L())", property.getSetter().getSimpleName(), types.erasure(property.getGetter().getReturnType()), property.getStreamMethodName());
                 }
                 for (Field field : model.getFields()) {
-                    deserializeMethodBuilder.addStatement("instance.$L = ($T) reader.read$L()", field.getField().getSimpleName(), types.erasure(field.getField().asType()), field.getStreamMethodName());
+                    SerializableTypeModel declared = getDeclaredTypeModel(field.getField().asType(), modelsByType);
+                    if (declared != null) {
+                        addDeclaredObjectRead(deserializeMethodBuilder, declared, fieldAssignment(field, CodeBlock.of("($T) value", declared.getTypeName())));
+                        declaredObjects = true;
+                        continue;
+                    }
+                    deserializeMethodBuilder.addStatement("$L", fieldAssignment(field, CodeBlock.of("($T) reader.read$L()", types.erasure(field.getField().asType()), field.getStreamMethodName())));
                 }
 
                 //walk up to superclass, if any
@@ -584,10 +791,20 @@ public class Processor extends AbstractProcessor {
             } else {
                 serializeMethodBuilder.addParameter(model.getTypeName(), "instance");
                 for (Property property : model.getProperties()) {
+                    SerializableTypeModel declared = getDeclaredTypeModel(property.getGetter().getReturnType(), modelsByType);
+                    if (declared != null) {
+                        addDeclaredObjectWrite(serializeMethodBuilder, declared, CodeBlock.of("instance.$L()", property.getGetter().getSimpleName()));
+                        continue;
+                    }
                     serializeMethodBuilder.addStatement("writer.write$L(instance.$L())", property.getStreamMethodName(), property.getGetter().getSimpleName());
                 }
                 for (Field field : model.getFields()) {
-                    serializeMethodBuilder.addStatement("writer.write$L(instance.$L)", field.getStreamMethodName(), field.getField().getSimpleName());
+                    SerializableTypeModel declared = getDeclaredTypeModel(field.getField().asType(), modelsByType);
+                    if (declared != null) {
+                        addDeclaredObjectWrite(serializeMethodBuilder, declared, fieldValue(field));
+                        continue;
+                    }
+                    serializeMethodBuilder.addStatement("writer.write$L($L)", field.getStreamMethodName(), fieldValue(field));
                 }
 
                 //walk up to superclass, if any
@@ -635,6 +852,176 @@ public class Processor extends AbstractProcessor {
         } catch (FilerException ignore) {
             // someone already wrote this type - doesn't matter, should be consistent no matter who did it
         }
+        return declaredObjects;
+    }
+
+    /**
+     * Returns an expression reading the field from the local {@code instance}.
+     */
+    private CodeBlock fieldValue(Field field) {
+        if (field.isAccessorRequired()) {
+            return CodeBlock.of("get_$L(instance)", field.getName());
+        }
+        return CodeBlock.of("instance.$L", field.getName());
+    }
+
+    /**
+     * Returns a statement assigning the value to the field of the local {@code instance}.
+     */
+    private CodeBlock fieldAssignment(Field field, CodeBlock value) {
+        if (field.isAccessorRequired()) {
+            return CodeBlock.of("set_$L(instance, $L)", field.getName(), value);
+        }
+        return CodeBlock.of("instance.$L = $L", field.getName(), value);
+    }
+
+    /**
+     * Adds a static get_ and set_ method for each field which can't be accessed directly. On the
+     * JVM these call method handles, which are looked up once when the field serializer is
+     * initialized; for GWT they are JSNI methods, as JavaPoet writes the code of a native method
+     * between its declaration and the semicolon.
+     */
+    private void addFieldAccessors(Builder fieldSerializerType, SerializableTypeModel model) {
+        CodeBlock.Builder initializer = CodeBlock.builder();
+        for (Field field : model.getFields()) {
+            if (!field.isAccessorRequired()) {
+                continue;
+            }
+            TypeName fieldType = TypeName.get(types.erasure(field.getField().asType()));
+            MethodSpec.Builder getter = MethodSpec.methodBuilder("get_" + field.getName())
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(fieldType)
+                    .addParameter(model.getTypeName(), "instance");
+            MethodSpec.Builder setter = MethodSpec.methodBuilder("set_" + field.getName())
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(TypeName.VOID)
+                    .addParameter(model.getTypeName(), "instance")
+                    .addParameter(fieldType, "value");
+
+            if (fieldAccessors.equals("jsni")) {
+                if (field.getField().asType().getKind() == TypeKind.LONG) {
+                    // GWT refuses to pass longs through JSNI without this annotation
+                    TypeElement unsafeNativeLong = elements.getTypeElement("com.google.gwt.core.client.UnsafeNativeLong");
+                    if (unsafeNativeLong == null) {
+                        messager.printMessage(Kind.MANDATORY_WARNING, "Field " + model.getTypeElement() + "." + field.getName() + " is a long, which can only be accessed through JSNI if gwt-user is on the classpath", field.getField());
+                    } else {
+                        getter.addAnnotation(ClassName.get(unsafeNativeLong));
+                        setter.addAnnotation(ClassName.get(unsafeNativeLong));
+                    }
+                }
+                String reference = "instance.@" + elements.getBinaryName(model.getTypeElement()) + "::" + field.getName();
+                fieldSerializerType.addMethod(getter
+                        .addModifiers(Modifier.NATIVE)
+                        .addCode(" /*-{\n$>return $L;\n$<}-*/", reference)
+                        .build());
+                fieldSerializerType.addMethod(setter
+                        .addModifiers(Modifier.NATIVE)
+                        .addCode(" /*-{\n$>$L = value;\n$<}-*/", reference)
+                        .build());
+                continue;
+            }
+
+            String getterHandle = field.getName() + "_getter";
+            String setterHandle = field.getName() + "_setter";
+            fieldSerializerType.addField(FieldSpec.builder(MethodHandle.class, getterHandle, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL).build());
+            fieldSerializerType.addField(FieldSpec.builder(MethodHandle.class, setterHandle, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL).build());
+            initializer.addStatement("field = $T.class.getDeclaredField($S)", ClassName.get(model.getTypeElement()), field.getName())
+                    .addStatement("field.setAccessible(true)")
+                    .addStatement("$L = lookup.unreflectGetter(field)", getterHandle)
+                    .addStatement("$L = lookup.unreflectSetter(field)", setterHandle);
+
+            // the casts make the calls exactly match the handles' types, so they can be inlined
+            fieldSerializerType.addMethod(getter
+                    .beginControlFlow("try")
+                    .addStatement("return ($T) $L.invokeExact(instance)", fieldType, getterHandle)
+                    .nextControlFlow("catch ($T | $T e)", RuntimeException.class, Error.class)
+                    .addStatement("throw e")
+                    .nextControlFlow("catch ($T t)", Throwable.class)
+                    .addStatement("throw new $T(t)", IllegalStateException.class)
+                    .endControlFlow()
+                    .build());
+            fieldSerializerType.addMethod(setter
+                    .beginControlFlow("try")
+                    .addStatement("$L.invokeExact(instance, value)", setterHandle)
+                    .nextControlFlow("catch ($T | $T e)", RuntimeException.class, Error.class)
+                    .addStatement("throw e")
+                    .nextControlFlow("catch ($T t)", Throwable.class)
+                    .addStatement("throw new $T(t)", IllegalStateException.class)
+                    .endControlFlow()
+                    .build());
+        }
+        if (!initializer.isEmpty()) {
+            fieldSerializerType.addStaticBlock(CodeBlock.builder()
+                    .beginControlFlow("try")
+                    .addStatement("$T lookup = $T.lookup()", MethodHandles.Lookup.class, MethodHandles.class)
+                    .addStatement("$T field", java.lang.reflect.Field.class)
+                    .add(initializer.build())
+                    .nextControlFlow("catch ($T e)", ReflectiveOperationException.class)
+                    .addStatement("throw new $T(e)", ExceptionInInitializerError.class)
+                    .endControlFlow()
+                    .build());
+        }
+    }
+
+    /**
+     * Returns the model of a field's type if every non-null value of the field must be exactly that
+     * type, so that it can be written without its type and its field serializer called directly:
+     * a final class which may be instantiated, has a default constructor and no custom field
+     * serializer. Returns null for any other type, which must be written with writeObject, and
+     * always unless serial.declaredObjects is set.
+     */
+    private SerializableTypeModel getDeclaredTypeModel(TypeMirror fieldType, Map<String, SerializableTypeModel> modelsByType) {
+        if (!useDeclaredObjects || fieldType.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        SerializableTypeModel model = modelsByType.get(types.erasure(fieldType).toString());
+        if (model == null || !model.mayBeInstantiated() || !model.isSerializable() || model.getCustomFieldSerializer() != null) {
+            return null;
+        }
+        TypeElement typeElement = model.getTypeElement();
+        if (typeElement.getKind() != ElementKind.CLASS || !typeElement.getModifiers().contains(Modifier.FINAL)) {
+            return null;
+        }
+        if (!JTypeUtils.isDefaultInstantiable(typeElement)) {
+            return null;
+        }
+        return model;
+    }
+
+    private boolean isDeclaredObjectTracked(SerializableTypeModel declared) {
+        return !(untrackValueTypes && isImmutableLeaf(declared));
+    }
+
+    /**
+     * Writes the value with writeDeclaredObject, then if it is a new object, calls its field
+     * serializer directly rather than having the stream look up its type.
+     */
+    private void addDeclaredObjectWrite(MethodSpec.Builder serializeMethodBuilder, SerializableTypeModel declared, CodeBlock value) {
+        ClassName declaredSerializer = ClassName.get(declared.getFieldSerializerPackage(), declared.getFieldSerializerName());
+        serializeMethodBuilder.addCode("{\n$>")
+                .addStatement("$T value = $L", declared.getTypeName(), value)
+                .beginControlFlow("if (writer.writeDeclaredObject(value, $L))", isDeclaredObjectTracked(declared))
+                .addStatement("$T.serialize(writer, value)", declaredSerializer)
+                .endControlFlow()
+                .addCode("$<}\n");
+    }
+
+    /**
+     * Reads a value written by {@link #addDeclaredObjectWrite}, creating and reading it with its field
+     * serializer if it is a new object, then assigns it with the given statement.
+     */
+    private void addDeclaredObjectRead(MethodSpec.Builder deserializeMethodBuilder, SerializableTypeModel declared, CodeBlock assignment) {
+        ClassName declaredSerializer = ClassName.get(declared.getFieldSerializerPackage(), declared.getFieldSerializerName());
+        deserializeMethodBuilder.addCode("{\n$>")
+                .addStatement("$T value = reader.readDeclaredObject()", Object.class)
+                .beginControlFlow("if (value == $T.NEW_OBJECT)", SerializationStreamReader.class)
+                .addStatement("$T created = ($T) $T.instantiate(reader)", declared.getTypeName(), declared.getTypeName(), declaredSerializer)
+                .addStatement("reader.rememberDeclaredObject(created, $L)", isDeclaredObjectTracked(declared))
+                .addStatement("$T.deserialize(reader, created)", declaredSerializer)
+                .addStatement("value = created")
+                .endControlFlow()
+                .addStatement("$L", assignment)
+                .addCode("$<}\n");
     }
 
 
@@ -83,15 +83,25 @@ public class SerializableTypeModel {
 
     public static class Field {
         private final VariableElement field;
+        private final boolean accessorRequired;
 
-        Field(VariableElement field) {
+        Field(VariableElement field, boolean accessorRequired) {
             this.field = field;
+            this.accessorRequired = accessorRequired;
         }
 
         public VariableElement getField() {
             return field;
         }
 
+        /**
+         * Returns true if the field is private or final, so the field serializer can't read or
+         * assign it directly, and must generate accessor methods for it.
+         */
+        public boolean isAccessorRequired() {
+            return accessorRequired;
+        }
+
         public TypeName getTypeName() {
             return TypeName.get(field.asType());
         }
@@ -122,7 +132,11 @@ public class SerializableTypeModel {
         return new SerializableTypeModel(types, serializableType, null, Collections.emptyList(), Collections.emptyList(), true, true, getFieldSerializer(serializableType, bidiOracle, types), null);
     }
 
-    public static SerializableTypeModel create(SerializingTypes types, TypeElement serializableType, Messager messager, boolean serializable, boolean maybeInstantiated, SerializableTypeOracleUnion bidiOracle) {
+    /**
+     * @param fieldAccessors true if fields that are private or final, and don't have both a getter
+     *                       and setter, may be serialized through generated accessors
+     */
+    public static SerializableTypeModel create(SerializingTypes types, TypeElement serializableType, Messager messager, boolean serializable, boolean maybeInstantiated, SerializableTypeOracleUnion bidiOracle, boolean fieldAccessors) {
         TypeElement customFieldSerializer = SerializableTypeOracleBuilder.findCustomFieldSerializer(types, serializableType.asType());
         List<Property> properties = new ArrayList<>();
         List<Field> fields = new ArrayList<>();
@@ -136,7 +150,7 @@ public class SerializableTypeModel {
         //rules of STOB are to look for fields,
         // * then invoke as properties if we can (at least on the jvm, but let's be consistent),
         // * else fall back to accessible fields,
-        // * and then violator pattern - TODO
+        // * and then violator pattern, if enabled
 
         for (VariableElement field : ElementFilter.fieldsIn(serializableType.getEnclosedElements())) {
             if (!SerializableTypeOracleBuilder.shouldConsiderForSerialization(field)) {
@@ -153,12 +167,14 @@ public class SerializableTypeModel {
                     messager.printMessage(Diagnostic.Kind.MANDATORY_WARNING, "Field " + field.getEnclosingElement() + "." + field + " doesn't match the type of its getter/setter methods: " + property.getFieldTypeName());
                 }
                 properties.add(property);
+            } else if (fieldAccessors && (field.getModifiers().contains(Modifier.PRIVATE) || field.getModifiers().contains(Modifier.FINAL))) {
+                //can't be assigned directly, generate accessors for it
+                fields.add(new Field(field, true));
             } else if (!field.getModifiers().contains(Modifier.PRIVATE)) {
                 //use it as a field, just assign it directly
-                fields.add(new Field(field));
+                fields.add(new Field(field, false));
             } else {
-                //TODO violator pattern
-                messager.printMessage(Diagnostic.Kind.MANDATORY_WARNING, "Field " + field.getEnclosingElement() + "." + field + " is private and is missing either getter or setter", field);
+                messager.printMessage(Diagnostic.Kind.MANDATORY_WARNING, "Field " + field.getEnclosingElement() + "." + field + " is private and is missing either getter or setter, set serial.fieldAccessors to serialize it anyway", field);
                 assert false : "field " + field + " is private";
             }
         }
@@ -726,6 +726,8 @@ public class SerializableTypeOracleBuilder {
 
     private final Messager messager;
 
+    private boolean reportTimings;
+
     /**
      * Constructs a builder.
      */
@@ -772,6 +774,7 @@ public class SerializableTypeOracleBuilder {
     public SerializableTypeOracle build(/*TreeLogger logger*/) throws UnableToCompleteException {
         alreadyCheckedObject = false;
 
+        long start = System.nanoTime();
         boolean allSucceeded = true;
 
         for (TypeMirror type : rootTypes) {
@@ -798,6 +801,7 @@ public class SerializableTypeOracleBuilder {
             throw new UnableToCompleteException();
         }
         assertNothingPending();
+        long rootsDone = System.nanoTime();
 
         // Add covariant arrays in a separate pass. We want to ensure that nothing is pending
         // so that the leaf type's instantiableTypes variable is ready (if it's computed at all)
@@ -821,8 +825,10 @@ public class SerializableTypeOracleBuilder {
             throw new UnableToCompleteException();
         }
         assertNothingPending();
+        long arraysDone = System.nanoTime();
 
         pruneUnreachableTypes();
+        long pruneDone = System.nanoTime();
 
         //TODO restore this, writing to an external log for manual review (if enabled)
 //        logReachableTypes(logger);
@@ -863,6 +869,15 @@ public class SerializableTypeOracleBuilder {
 
 //        logSerializableTypes(logger, fieldSerializableTypes);
 
+        if (reportTimings) {
+            long end = System.nanoTime();
+            messager.printMessage(Kind.NOTE, "Found " + fieldSerializableTypes.size() + " serializable types from " + rootTypes.size() + " root types in " + millis(start, end) + "ms: "
+                    + "root types " + millis(start, rootsDone) + "ms, "
+                    + "arrays " + millis(rootsDone, arraysDone) + "ms, "
+                    + "pruning " + millis(arraysDone, pruneDone) + "ms, "
+                    + "collecting " + millis(pruneDone, end) + "ms");
+        }
+
         return new SerializableTypeOracleImpl(fieldSerializableTypes, possiblyInstantiatedTypes, types.getTypes());
     }
 
@@ -874,11 +889,30 @@ public class SerializableTypeOracleBuilder {
 //        this.logOutputWriter = logOutputWriter;
 //    }
 
+    /**
+     * If true, {@link #build()} reports how long each of its phases took as a note.
+     */
+    public void setReportTimings(boolean reportTimings) {
+        this.reportTimings = reportTimings;
+    }
+
+    /**
+     * Returns a key that is equal for builders with the same root types, so that the oracle built
+     * from one can be reused for another within the same round.
+     */
+    public String getRootTypesKey() {
+        return rootTypes.stream().map(TypeMirror::toString).sorted().collect(Collectors.joining(","));
+    }
+
     public void setTypeFilter(TypeFilter typeFilter) {
         this.typeFilter = typeFilter;
         typeParameterExposureComputer.setTypeFilter(typeFilter);
     }
 
+    private static long millis(long startNanos, long endNanos) {
+        return (endNanos - startNanos) / 1_000_000;
+    }
+
     /**
      * This method determines information about serializing a type with GWT. To do
      * so, it must traverse all subtypes as well as all field types of those
@@ -1,7 +1,5 @@
 package org.gwtproject.rpc.serial.processor;
 
-import com.google.common.collect.Lists;
-
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
@@ -14,6 +12,9 @@ public class SerializingTypes {
 
     private final Map<TypeElement, Set<TypeElement>> knownSubtypes;
 
+    // all subtypes of each type that has been asked for, as this is called over and over for the same types
+    private final Map<TypeElement, List<TypeElement>> allSubtypes = new HashMap<>();
+
     public SerializingTypes(Types types, Elements elements, Map<TypeElement, Set<TypeElement>> knownSubtypes) {
         this.types = types;
         this.elements = elements;
@@ -37,19 +38,27 @@ public class SerializingTypes {
         return getSubtypes(key);
     }
 
+    /**
+     * Returns every known subtype of the given type, each only once, with the direct subtypes
+     * first. The result is computed once per type and can't be modified.
+     */
     public List<TypeElement> getSubtypes(TypeElement type) {
-        ArrayList<TypeElement> subtypes = Lists.newArrayList(knownSubtypes.getOrDefault(type, Collections.emptySet()));
+        List<TypeElement> subtypes = allSubtypes.get(type);
+        if (subtypes != null) {
+            return subtypes;
+        }
+        Set<TypeElement> directSubtypes = knownSubtypes.getOrDefault(type, Collections.emptySet());
 
         //TODO if unknown, we might need to walk through reflections of classpath stuff...
 
-        //recursively add more
-        int len = subtypes.size();
-        for (int i = 0; i < len; i++) {
-            TypeElement subtype = subtypes.get(i);
-            subtypes.add(subtype);
-            subtypes.addAll(getSubtypes(subtype));
+        //recursively add more, types reachable through more than one interface are only added once
+        Set<TypeElement> found = new LinkedHashSet<>(directSubtypes);
+        for (TypeElement subtype : directSubtypes) {
+            found.addAll(getSubtypes(subtype));
         }
 
+        subtypes = Collections.unmodifiableList(new ArrayList<>(found));
+        allSubtypes.put(type, subtypes);
         return subtypes;
     }
 }
@@ -35,17 +35,31 @@ import java.util.function.Function;
  */
 public class TypeConstrainer {
     /**
-     * Check whether two base types have any subclasses in common. Note: this
-     * could surely be implemented much more efficiently.
+     * Check whether two base types have any subclasses in common. Results are
+     * remembered for each pair of base types, as the same pairs are checked for
+     * many parameterizations.
      */
-    private static boolean baseTypesOverlap(SerializingTypes types, TypeMirror type1, TypeMirror type2) {
+    private boolean baseTypesOverlap(TypeMirror type1, TypeMirror type2) {
         assert (type1 == getBaseType(types.getTypes(), type1));
         assert (type2 == getBaseType(types.getTypes(), type2));
 
-        if (ClassName.get(type1).toString().equals(ClassName.get(type2).toString())) {
+        String name1 = ClassName.get(type1).toString();
+        String name2 = ClassName.get(type2).toString();
+        if (name1.equals(name2)) {
             return true;
         }
 
+        String key = name1 + " " + name2;
+        Boolean overlap = baseTypeOverlaps.get(key);
+        if (overlap == null) {
+            overlap = computeBaseTypesOverlap(types, type1, type2);
+            baseTypeOverlaps.put(key, overlap);
+        }
+        return overlap;
+    }
+
+    private static boolean computeBaseTypesOverlap(SerializingTypes types, TypeMirror type1, TypeMirror type2) {
+
         HashSet<TypeMirror> subtypes1 = new HashSet<>();
         subtypes1.add(type1);
         for (TypeElement sub1 : types.getSubtypes(type1)) {
@@ -106,6 +120,8 @@ public class TypeConstrainer {
 
     private final SerializingTypes types;
 
+    private final Map<String, Boolean> baseTypeOverlaps = new HashMap<>();
+
     public TypeConstrainer(SerializingTypes serializingTypes) {
         this.types = serializingTypes;
     }
@@ -297,7 +313,7 @@ public class TypeConstrainer {
             } else {
                 // The types have different base types, so just compare the base types
                 // for overlap.
-                if (baseTypesOverlap(types, baseType1, baseType2)) {
+                if (baseTypesOverlap(baseType1, baseType2)) {
                     return true;
                 }
             }
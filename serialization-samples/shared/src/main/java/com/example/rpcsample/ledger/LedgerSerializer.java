@@ -0,0 +1,19 @@
+package com.example.rpcsample.ledger;
+
+import org.gwtproject.rpc.serialization.api.SerializationStreamReader;
+import org.gwtproject.rpc.serialization.api.SerializationStreamWriter;
+import org.gwtproject.rpc.serialization.api.SerializationWiring;
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
+
+@SerializationWiring
+public interface LedgerSerializer {
+    static LedgerSerializer create() {
+        return new LedgerSerializer_Impl();
+    }
+
+    TypeSerializer createSerializer();
+
+    void writeMoney(Money money, SerializationStreamWriter writer);
+
+    Money readMoney(SerializationStreamReader reader);
+}
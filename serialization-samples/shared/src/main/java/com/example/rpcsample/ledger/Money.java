@@ -0,0 +1,30 @@
+package com.example.rpcsample.ledger;
+
+import java.io.Serializable;
+
+/**
+ * Immutable value with private final fields and no setters, so it can only be serialized with
+ * serial.fieldAccessors enabled. This package is outside of the Shared GWT module, as this project
+ * generates jvm accessors.
+ */
+public final class Money implements Serializable {
+    private final long amount;
+    private final String currency;
+
+    Money() {
+        this(0, null);
+    }
+
+    public Money(long amount, String currency) {
+        this.amount = amount;
+        this.currency = currency;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+}
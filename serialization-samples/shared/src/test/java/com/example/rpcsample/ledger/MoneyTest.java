@@ -0,0 +1,26 @@
+package com.example.rpcsample.ledger;
+
+import org.gwtproject.rpc.serialization.api.TypeSerializer;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamReader;
+import org.gwtproject.rpc.serialization.stream.bytebuffer.ByteBufferSerializationStreamWriter;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MoneyTest {
+    @Test
+    public void testPrivateFinalFieldsRoundTrip() {
+        LedgerSerializer ledger = LedgerSerializer.create();
+        TypeSerializer serializer = ledger.createSerializer();
+
+        ByteBufferSerializationStreamWriter writer = new ByteBufferSerializationStreamWriter(serializer);
+        ledger.writeMoney(new Money(-123456789012L, "EUR"), writer);
+        ledger.writeMoney(null, writer);
+
+        ByteBufferSerializationStreamReader reader = new ByteBufferSerializationStreamReader(serializer, writer.getFullPayload());
+        Money money = ledger.readMoney(reader);
+        assertEquals(-123456789012L, money.getAmount());
+        assertEquals("EUR", money.getCurrency());
+        assertNull(ledger.readMoney(reader));
+    }
+}
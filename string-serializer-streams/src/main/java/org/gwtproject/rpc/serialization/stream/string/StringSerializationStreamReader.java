@@ -12,20 +12,39 @@ public class StringSerializationStreamReader extends AbstractSerializationStream
 
     private int claimedTokens;
 
-    private int tokenIndex = 0;
-    private final List<String> tokens = new ArrayList<>();
+    // tokens are read in place from the payload rather than split out into Strings
+    private String payload;
+    private int tokenCount;
+    private int position;
+    private int tokenStart;
+    private int tokenEnd;
 
     private final List<String> stringTable = new ArrayList<>();
 
     public StringSerializationStreamReader(TypeSerializer serializer, String payload) {
         this.serializer = serializer;
+        reset(payload);
+    }
+
+    /**
+     * Starts reading a new payload, so that one reader can be reused for each message rather than
+     * creating a new one.
+     */
+    public void reset(String payload) {
+        prepareToRead();
+        this.payload = payload;
+        position = 0;
+        claimedTokens = 0;
+        stringTable.clear();
 
-        int idx = 0, nextIdx;
-        while (-1 != (nextIdx = payload.indexOf(RPC_SEPARATOR_CHAR, idx))) {
-            String current = payload.substring(idx, nextIdx);
-            tokens.add(current);
-            idx = nextIdx + 1;
+        int count = 0;
+        for (int i = 0, length = payload.length(); i < length; i++) {
+            if (payload.charAt(i) == RPC_SEPARATOR_CHAR) {
+                count++;
+            }
         }
+        tokenCount = count;
+        int idx;
 
         try {
             // Read the stream version number
@@ -40,7 +59,8 @@ public class StringSerializationStreamReader extends AbstractSerializationStream
             claimItems(stringCount);
 
             for (int typeNameIndex = 0; typeNameIndex < stringCount; ++typeNameIndex) {
-                String str = token();
+                nextToken();
+                String str = payload.substring(tokenStart, tokenEnd);
                 // Change quoted characters back.
                 idx = str.indexOf('\\');
                 if (idx >= 0) {
@@ -103,6 +123,36 @@ public class StringSerializationStreamReader extends AbstractSerializationStream
         return instance;
     }
 
+    @Override
+    protected Object deserialize(int typeId) throws com.google.gwt.user.client.rpc.SerializationException {
+        if (!serializer.isReferenceTracked(typeId)) {
+            // never referred back to, so it doesn't take up an index
+            Object instance = serializer.instantiate(this, typeId);
+            serializer.deserialize(this, instance, typeId);
+            return instance;
+        }
+        int id = reserveDecodedObjectIndex();
+        Object instance = serializer.instantiate(this, typeId);
+        rememberDecodedObject(id, instance);
+        serializer.deserialize(this, instance, typeId);
+        return instance;
+    }
+
+    @Override
+    protected int getTypeId(String typeSignature) {
+        return serializer.getTypeId(typeSignature);
+    }
+
+    @Override
+    protected int getTypeCount() {
+        return serializer.getTypeCount();
+    }
+
+    @Override
+    protected String getTypeSignature(int typeId) {
+        return serializer.getTypeSignature(typeId);
+    }
+
     @Override
     protected String getString(int index) {
         if (index == 0) {
@@ -114,19 +164,65 @@ public class StringSerializationStreamReader extends AbstractSerializationStream
         return stringTable.get(index - 1);
     }
 
-    private String token() {
-      return tokens.get(tokenIndex++);
+    /**
+     * Finds the bounds of the next token, and moves past it - the token is then available from
+     * tokenStart to tokenEnd until the next call.
+     */
+    private void nextToken() throws SerializationException {
+        int end = payload.indexOf(RPC_SEPARATOR_CHAR, position);
+        if (end == -1) {
+            throw new SerializationException("Unexpected end of payload");
+        }
+        tokenStart = position;
+        tokenEnd = end;
+        position = end + 1;
+    }
+
+    private String token() throws SerializationException {
+        nextToken();
+        return payload.substring(tokenStart, tokenEnd);
     }
 
+    /**
+     * Parses the next token as a decimal int, reading the digits directly from the payload.
+     */
+    private int intToken() throws SerializationException {
+        nextToken();
+        int pos = tokenStart;
+        boolean negative = false;
+        if (pos < tokenEnd && payload.charAt(pos) == '-') {
+            negative = true;
+            pos++;
+        }
+        if (pos == tokenEnd) {
+            throw new SerializationException("Expected a number, found \"" + payload.substring(tokenStart, tokenEnd) + "\"");
+        }
+        // accumulate as a negative value, so that MIN_VALUE fits
+        int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int result = 0;
+        for (; pos < tokenEnd; pos++) {
+            int digit = payload.charAt(pos) - '0';
+            if (digit < 0 || digit > 9 || result < limit / 10 || result * 10 < limit + digit) {
+                throw new SerializationException("Expected a number, found \"" + payload.substring(tokenStart, tokenEnd) + "\"");
+            }
+            result = result * 10 - digit;
+        }
+        return negative ? result : -result;
+    }
 
     @Override
     public boolean readBoolean() throws SerializationException {
-        return !token().equals("0");
+        nextToken();
+        return tokenEnd - tokenStart != 1 || payload.charAt(tokenStart) != '0';
     }
 
     @Override
     public byte readByte() throws SerializationException {
-        return Byte.parseByte(token());
+        int value = intToken();
+        if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+            throw new SerializationException("Value out of range for a byte: " + value);
+        }
+        return (byte) value;
     }
 
     @Override
@@ -136,7 +232,12 @@ public class StringSerializationStreamReader extends AbstractSerializationStream
 
     @Override
     public double readDouble() throws SerializationException {
-        return Double.parseDouble(token());
+        String token = token();
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw new SerializationException("Expected a number, found \"" + token + "\"");
+        }
     }
 
     @Override
@@ -146,27 +247,35 @@ public class StringSerializationStreamReader extends AbstractSerializationStream
 
     @Override
     public int readInt() throws SerializationException {
-        return Integer.parseInt(token());
+        return intToken();
     }
 
     @Override
     public long readLong() throws SerializationException {
-        return longFromBase64(token());
+        nextToken();
+        if (tokenStart == tokenEnd) {
+            throw new SerializationException("Expected a long, found an empty token");
+        }
+        return longFromBase64(payload, tokenStart, tokenEnd);
     }
 
     @Override
     public short readShort() throws SerializationException {
-        return Short.parseShort(token());
+        int value = intToken();
+        if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+            throw new SerializationException("Value out of range for a short: " + value);
+        }
+        return (short) value;
     }
 
     @Override
     public String readString() throws SerializationException {
-        return getString(readInt());
+        return resolveString(readInt());
     }
 
     @Override
     public void claimItems(int slots) throws SerializationException {
-        if (claimedTokens + slots > tokens.size() + stringTable.size()) {
+        if (claimedTokens + slots > tokenCount + stringTable.size()) {
             throw new SerializationException("Request claims to be larger than it is");
         }
         claimedTokens += slots;
@@ -3,6 +3,7 @@ package org.gwtproject.rpc.serialization.stream.string;
 import org.gwtproject.rpc.serialization.api.TypeSerializer;
 import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStreamWriter;
 
+import java.io.IOException;
 import java.util.List;
 
 public class StringSerializationStreamWriter extends AbstractSerializationStreamWriter {
@@ -111,16 +112,50 @@ public class StringSerializationStreamWriter extends AbstractSerializationStream
 
     @Override
     public String toString() {
-        StringBuilder buffer = new StringBuilder();
-        writeHeader(buffer);
-        writeStringTable(buffer);
-        writePayload(buffer);
+        StringBuilder buffer = new StringBuilder(getLength());
+        try {
+            writeTo(buffer);
+        } catch (IOException e) {
+            // StringBuilder never throws
+            throw new IllegalStateException(e);
+        }
         return buffer.toString();
     }
 
+    /**
+     * Writes the complete payload - header, string table and then the encoded
+     * values - to the given Appendable, without first building it up as a
+     * single String.
+     *
+     * @param out the destination for the payload
+     * @throws IOException if the Appendable fails
+     */
+    public void writeTo(Appendable out) throws IOException {
+        writeHeader(out);
+        writeStringTable(out);
+        writePayload(out);
+    }
+
+    /**
+     * Returns the number of chars that {@link #toString()} would produce. Once
+     * encoded, the payload will be at least this many bytes, and no more than
+     * three times as many in UTF-8, so this can be used to size buffers or
+     * decide whether to compress before writing the payload out.
+     */
+    public int getLength() {
+        int length = String.valueOf(getVersion()).length() + String.valueOf(getFlags()).length() + 2;
+        List<String> stringTable = getStringTable();
+        length += String.valueOf(stringTable.size()).length() + 1;
+        for (String s : stringTable) {
+            length += quotedLength(s) + 1;
+        }
+        return length + encodeBuffer.length();
+    }
+
     @Override
     public void writeLong(long value) {
-        append(longToBase64(value));
+        longToBase64(value, encodeBuffer);
+        encodeBuffer.append(RPC_SEPARATOR_CHAR);
     }
 
     /**
@@ -132,15 +167,45 @@ public class StringSerializationStreamWriter extends AbstractSerializationStream
     }
 
     @Override
-    protected String getObjectTypeSignature(Object o) {
-        Class<?> clazz = o.getClass();
+    protected void append(int token) {
+        encodeBuffer.append(token);
+        encodeBuffer.append(RPC_SEPARATOR_CHAR);
+    }
 
-        if (o instanceof Enum<?>) {
-            Enum<?> e = (Enum<?>) o;
-            clazz = e.getDeclaringClass();
-        }
+    @Override
+    protected void append(double token) {
+        encodeBuffer.append(token);
+        encodeBuffer.append(RPC_SEPARATOR_CHAR);
+    }
 
-        return serializer.getSerializationSignature(clazz);
+    @Override
+    protected int getObjectTypeId(Object o) {
+        return serializer.getTypeId(o.getClass());
+    }
+
+    @Override
+    protected int getTypeId(String typeSignature) {
+        return serializer.getTypeId(typeSignature);
+    }
+
+    @Override
+    protected int getTypeCount() {
+        return serializer.getTypeCount();
+    }
+
+    @Override
+    protected boolean isReferenceTracked(int typeId) {
+        return serializer.isReferenceTracked(typeId);
+    }
+
+    @Override
+    protected String getTypeSignature(int typeId) {
+        return serializer.getTypeSignature(typeId);
+    }
+
+    @Override
+    protected String getObjectTypeSignature(Object o) {
+        return serializer.getSerializationSignature(o.getClass());
     }
 
     @Override
@@ -149,41 +214,70 @@ public class StringSerializationStreamWriter extends AbstractSerializationStream
         serializer.serialize(this, instance, typeSignature);
     }
 
-    private void writeHeader(StringBuilder buffer) {
-        append(buffer, String.valueOf(getVersion()));
-        append(buffer, String.valueOf(getFlags()));
+    @Override
+    protected void serialize(Object instance, int typeId)
+            throws com.google.gwt.user.client.rpc.SerializationException {
+        serializer.serialize(this, instance, typeId);
+    }
+
+    private void writeHeader(Appendable buffer) throws IOException {
+        buffer.append(String.valueOf(getVersion())).append(RPC_SEPARATOR_CHAR);
+        buffer.append(String.valueOf(getFlags())).append(RPC_SEPARATOR_CHAR);
     }
 
-    private void writePayload(StringBuilder buffer) {
-        buffer.append(encodeBuffer.toString());
+    private void writePayload(Appendable buffer) throws IOException {
+        buffer.append(encodeBuffer);
     }
 
-    private void writeStringTable(StringBuilder buffer) {
+    private void writeStringTable(Appendable buffer) throws IOException {
         List<String> stringTable = getStringTable();
-        append(buffer, String.valueOf(stringTable.size()));
+        buffer.append(String.valueOf(stringTable.size())).append(RPC_SEPARATOR_CHAR);
         for (String s : stringTable) {
-            append(buffer, quoteString(s));
+            quoteString(buffer, s);
+            buffer.append(RPC_SEPARATOR_CHAR);
         }
     }
 
     /**
      * Quote characters in a user-supplied string to make sure they are safe to
-     * send to the server.
+     * send to the server, appending the result to the buffer. Backslashes are
+     * doubled, and null and separator characters are replaced with \0 and \!.
      *
+     * @param buffer the buffer to append the quoted string to
      * @param str string to quote
-     * @return quoted string
      */
-    private static String quoteString(String str) {
-        return str
-                // replace all plain slash with double-slash (has to be first so we can add slashes later)
-                .replaceAll("\\\\", "\\\\\\\\")
-                // replace null char with literal slash, zero
-                .replaceAll("\0", "\\\\0")
-                // replace pipe char with literal slash, !
-                .replaceAll("\\|", "\\\\!")
-                //replace all quote, with slash-quote
-                .replaceAll("\"", "\\\"");
-
-        //when reversed, replace slash-quote with quote, then undouble slashes
+    private static void quoteString(Appendable buffer, String str) throws IOException {
+        int length = str.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char ch = str.charAt(i);
+            if (ch != '\\' && ch != '\0' && ch != RPC_SEPARATOR_CHAR) {
+                continue;
+            }
+            // copy everything since the last quoted char, then quote this one
+            buffer.append(str, start, i);
+            buffer.append('\\');
+            if (ch == '\0') {
+                buffer.append('0');
+            } else if (ch == RPC_SEPARATOR_CHAR) {
+                buffer.append('!');
+            } else {
+                buffer.append('\\');
+            }
+            start = i + 1;
+        }
+        // when nothing needed quoting, this appends the whole string at once
+        buffer.append(str, start, length);
+    }
+
+    private static int quotedLength(String str) {
+        int length = str.length();
+        for (int i = 0; i < str.length(); i++) {
+            char ch = str.charAt(i);
+            if (ch == '\\' || ch == '\0' || ch == RPC_SEPARATOR_CHAR) {
+                length++;
+            }
+        }
+        return length;
     }
 }
@@ -2,11 +2,20 @@ package org.gwtproject.rpc.serialization.stream.string;
 
 import org.gwtproject.rpc.serialization.api.FieldSerializer;
 import org.gwtproject.rpc.serialization.api.SerializationException;
+import org.gwtproject.rpc.serialization.api.SerializationStreamReader;
+import org.gwtproject.rpc.serialization.api.SerializationStreamWriter;
 import org.gwtproject.rpc.serialization.api.TypeSerializer;
+import org.gwtproject.rpc.serialization.api.impl.AbstractSerializationStream;
 import org.gwtproject.rpc.serialization.api.impl.TypeSerializerImpl;
+import org.gwtproject.rpc.serialization.api.impl.TypeTable;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -78,6 +87,31 @@ public class ServerStreamTest {
     }
 
 
+    @Test
+    public void testLongEncoding() throws Exception {
+        StringSerializationStreamWriter writer = getStringStreamWriter();
+        writer.writeLong(0);
+        writer.writeLong(1);
+        writer.writeLong(64);
+        writer.writeLong(-1);
+        writer.writeLong(Long.MIN_VALUE);
+        assertTrue(writer.toString(), writer.toString().endsWith("|A|B|BA|P__________|IAAAAAAAAAA|"));
+
+        Random random = new Random(1);
+        long[] values = new long[1000];
+        writer = getStringStreamWriter();
+        for (int i = 0; i < values.length; i++) {
+            // vary the magnitude, so that every length of encoding is covered
+            values[i] = random.nextLong() >> random.nextInt(64);
+            writer.writeLong(values[i]);
+        }
+
+        StringSerializationStreamReader reader = getStreamReader(writer);
+        for (long value : values) {
+            assertEquals(value, reader.readLong());
+        }
+    }
+
     @Test
     public void testString() throws Exception {
         StringSerializationStreamWriter writer = getStringStreamWriter();
@@ -111,6 +145,26 @@ public class ServerStreamTest {
 
 
 
+    @Test
+    public void testReset() throws Exception {
+        StringSerializationStreamWriter writer = getStringStreamWriter();
+        writer.writeString("foo");
+        writer.writeInt(1);
+        StringSerializationStreamReader reader = getStreamReader(writer);
+        assertEquals("foo", reader.readString());
+        assertEquals(1, reader.readInt());
+
+        // the string table is replaced rather than added to
+        writer = getStringStreamWriter();
+        writer.writeString("bar");
+        writer.writeString("foo");
+        writer.writeInt(2);
+        reader.reset(writer.toString());
+        assertEquals("bar", reader.readString());
+        assertEquals("foo", reader.readString());
+        assertEquals(2, reader.readInt());
+    }
+
     @Test
     public void testFloat() throws Exception {
         StringSerializationStreamWriter writer = getStringStreamWriter();
@@ -171,4 +225,164 @@ public class ServerStreamTest {
         assertEquals(Double.POSITIVE_INFINITY, reader.readDouble(), 0);
 
     }
+
+    @Test
+    public void testQuotedStringTable() throws Exception {
+        StringSerializationStreamWriter writer = getStringStreamWriter();
+        writer.writeString("plain");
+        writer.writeString("a|b\\c\0d\"");
+
+        String payload = writer.toString();
+        assertTrue(payload, payload.contains("|2|plain|a\\!b\\\\c\\0d\"|"));
+
+        StringSerializationStreamReader reader = getStreamReader(writer);
+        assertEquals("plain", reader.readString());
+        assertEquals("a|b\\c\0d\"", reader.readString());
+    }
+
+    @Test
+    public void testStringDictionary() throws Exception {
+        TypeSerializer points = new TypeSerializerImpl(new TypeTable(
+                new String[] {Point.class.getCanonicalName()},
+                new FieldSerializer[] {new FieldSerializer() {
+                    @Override
+                    public void serial(SerializationStreamWriter writer, Object instance) throws SerializationException {
+                        writer.writeInt(((Point) instance).x);
+                    }
+
+                    @Override
+                    public Object create(SerializationStreamReader reader) {
+                        return new Point();
+                    }
+
+                    @Override
+                    public void deserial(SerializationStreamReader reader, Object instance) throws SerializationException {
+                        ((Point) instance).x = reader.readInt();
+                    }
+                }},
+                new int[0]
+        )) {
+            @Override
+            public String getChecksum() {
+                return "";
+            }
+        };
+        Point point = new Point();
+        point.x = 7;
+
+        StringSerializationStreamWriter plain = new StringSerializationStreamWriter(points);
+        plain.prepareToWrite();
+        plain.setFlags(0);
+        plain.writeObject(point);
+        plain.writeString("other");
+        assertTrue(plain.toString().contains(Point.class.getCanonicalName()));
+
+        StringSerializationStreamWriter writer = new StringSerializationStreamWriter(points);
+        writer.prepareToWrite();
+        writer.setFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY);
+        writer.writeObject(point);
+        writer.writeString(Point.class.getCanonicalName());
+        writer.writeString("other");
+        writer.writeString(null);
+
+        // signatures are sent as their type id, only other strings are in the table
+        String payload = writer.toString();
+        assertFalse(payload, payload.contains(Point.class.getCanonicalName()));
+        assertTrue(payload.length() < plain.toString().length());
+
+        StringSerializationStreamReader reader = new StringSerializationStreamReader(points, payload);
+        assertTrue(reader.hasFlags(AbstractSerializationStream.FLAG_STRING_DICTIONARY));
+        assertEquals(7, ((Point) reader.readObject()).x);
+        assertEquals(Point.class.getCanonicalName(), reader.readString());
+        assertEquals("other", reader.readString());
+        assertNull(reader.readString());
+    }
+
+    static class Point {
+        int x;
+    }
+
+    @Test
+    public void testWriteTo() throws Exception {
+        StringSerializationStreamWriter writer = getStringStreamWriter();
+        writer.writeString("a|b\\c");
+        writer.writeLong(Long.MAX_VALUE);
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            large.append(i % 7 == 0 ? "\ud83d\ude00" : "x");
+        }
+        writer.writeString(large.toString());
+        writer.writeString("\u00e9t\u00e9 \u20ac \ud800 unpaired");
+
+        String expected = writer.toString();
+        assertEquals(expected.length(), writer.getLength());
+        assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, AbstractSerializationStream.utf8Length(expected));
+
+        StringBuilder appended = new StringBuilder();
+        writer.writeTo(appended);
+        assertEquals(expected, appended.toString());
+    }
+
+    @Test
+    public void testSmallPrimitives() throws Exception {
+        StringSerializationStreamWriter writer = getStringStreamWriter();
+        writer.writeBoolean(true);
+        writer.writeBoolean(false);
+        writer.writeByte(Byte.MIN_VALUE);
+        writer.writeShort(Short.MAX_VALUE);
+        writer.writeChar('x');
+        writer.writeString("a|b");
+        writer.writeInt(-10);
+
+        StringSerializationStreamReader reader = getStreamReader(writer);
+
+        assertTrue(reader.readBoolean());
+        assertEquals(false, reader.readBoolean());
+        assertEquals(Byte.MIN_VALUE, reader.readByte());
+        assertEquals(Short.MAX_VALUE, reader.readShort());
+        assertEquals('x', reader.readChar());
+        assertEquals("a|b", reader.readString());
+        assertEquals(-10, reader.readInt());
+    }
+
+    @Test
+    public void testMalformedTokens() throws Exception {
+        String header = AbstractSerializationStream.SERIALIZATION_STREAM_VERSION + "|0|0|";
+
+        try {
+            new StringSerializationStreamReader(s, header + "12a|").readInt();
+            fail("Expected failure on non-numeric int");
+        } catch (SerializationException expected) {
+        }
+        try {
+            new StringSerializationStreamReader(s, header + "2147483648|").readInt();
+            fail("Expected failure on int overflow");
+        } catch (SerializationException expected) {
+        }
+        try {
+            new StringSerializationStreamReader(s, header + "-|").readInt();
+            fail("Expected failure on a lone minus sign");
+        } catch (SerializationException expected) {
+        }
+        try {
+            new StringSerializationStreamReader(s, header + "128|").readByte();
+            fail("Expected failure on byte overflow");
+        } catch (SerializationException expected) {
+        }
+        try {
+            new StringSerializationStreamReader(s, header + "1").readInt();
+            fail("Expected failure on missing separator");
+        } catch (SerializationException expected) {
+        }
+        try {
+            new StringSerializationStreamReader(s, header + "1.5x|").readDouble();
+            fail("Expected failure on non-numeric double");
+        } catch (SerializationException expected) {
+        }
+        try {
+            new StringSerializationStreamReader(s, header + "|").readFloat();
+            fail("Expected failure on empty float");
+        } catch (SerializationException expected) {
+        }
+    }
 }